@@ -0,0 +1,49 @@
+package uk.ac.nulondon;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Images used by the benchmarks
+ */
+final class BenchmarkImages {
+    static final String BEACH = "beach";
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * @param size side of a synthetic square image, or "beach" for the sample photo
+     * @return image of the given size
+     * @throws IOException if the sample photo cannot be read
+     */
+    static BufferedImage create(String size) throws IOException {
+        if (BEACH.equals(size)) {
+            return ImageIO.read(new File("src/main/resources/beach.png"));
+        }
+        int side = Integer.parseInt(size);
+        return synthetic(side, side);
+    }
+
+    /**
+     * Smooth gradients with some noise, so that seams do not all end up in the same place
+     */
+    private static BufferedImage synthetic(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height); //Same image on every run
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = (x * 255 / width + random.nextInt(32)) & 0xFF;
+                int green = (y * 255 / height + random.nextInt(32)) & 0xFF;
+                int blue = ((x + y) * 127 / (width + height) + random.nextInt(64)) & 0xFF;
+                row[x] = (red << 16) | (green << 8) | blue;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+}
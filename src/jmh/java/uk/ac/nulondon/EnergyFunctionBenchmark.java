@@ -0,0 +1,50 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full energy calculation with every built-in energy function, vectorized and as plain loops
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules=jdk.incubator.vector"})
+public class EnergyFunctionBenchmark {
+    @Param({"512", "2048", "4096"})
+    public String size;
+
+    @Param({"SOBEL", "DUAL_GRADIENT", "FORWARD"})
+    public String function;
+
+    @Param({"true", "false"})
+    public boolean vectorized;
+
+    private PackedImage image;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        image = new PackedImage(BenchmarkImages.create(size));
+        image.setEnergyFunction(vectorized ? VectorEnergy.valueOf(function) : ScalarEnergy.valueOf(function));
+    }
+
+    @Benchmark
+    public void calculateEnergy() {
+        image.calculateEnergy();
+    }
+}
@@ -0,0 +1,75 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the linked {@link Image}. One Pixel object per pixel does not fit in a default heap
+ * for the largest sizes, which {@link PackedImageBenchmark} covers instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ImageBenchmark {
+    @Param({"beach", "512", "2048"})
+    public String size;
+
+    private Image image;
+    private List<Pixel> seam;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        image = new Image(BenchmarkImages.create(size));
+        seam = image.getLowestEnergySeam();
+    }
+
+    @Benchmark
+    public void calculateEnergy() {
+        image.calculateEnergy();
+    }
+
+    @Benchmark
+    public List<Pixel> getGreenestSeam() {
+        return image.getGreenestSeam();
+    }
+
+    /**
+     * Energy is only recalculated next to edited seams, so this measures the seam search
+     */
+    @Benchmark
+    public List<Pixel> getLowestEnergySeam() {
+        return image.getLowestEnergySeam();
+    }
+
+    /**
+     * Removing and adding back the same seam keeps the image the same between invocations
+     */
+    @Benchmark
+    public void removeAndAddSeam() {
+        image.removeSeam(seam);
+        image.addSeam(seam);
+    }
+
+    @Benchmark
+    public BufferedImage toBufferedImage() {
+        return image.toBufferedImage();
+    }
+}
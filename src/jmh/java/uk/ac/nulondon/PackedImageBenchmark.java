@@ -0,0 +1,87 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link PackedImage} backend, serial and with a thread per core
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules=jdk.incubator.vector"})
+public class PackedImageBenchmark {
+    @Param({"beach", "512", "2048", "4096", "8192"})
+    public String size;
+
+    @Param({"1", "0"}) //0 uses every available core
+    public int parallelism;
+
+    private PackedImage image;
+    private PackedImage approximate;
+    private int[] seam;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        image = new PackedImage(BenchmarkImages.create(size));
+        image.setParallelism(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        seam = image.getLowestEnergySeam();
+        approximate = new PackedImage(image);
+        approximate.setApproximation(2, 8);
+    }
+
+    @Benchmark
+    public void calculateEnergy() {
+        image.calculateEnergy();
+    }
+
+    @Benchmark
+    public int[] getGreenestSeam() {
+        return image.getGreenestSeam();
+    }
+
+    /**
+     * Energy is only recalculated next to edited seams, so this measures the seam search
+     */
+    @Benchmark
+    public int[] getLowestEnergySeam() {
+        return image.getLowestEnergySeam();
+    }
+
+    /**
+     * Seam found on the energy halved twice and refined within 8 pixels
+     */
+    @Benchmark
+    public int[] getApproximateLowestEnergySeam() {
+        return approximate.getLowestEnergySeam();
+    }
+
+    /**
+     * Removing and adding back the same seam keeps the image the same between invocations
+     */
+    @Benchmark
+    public void removeAndAddSeam() {
+        image.addSeam(seam, image.removeSeam(seam));
+    }
+
+    @Benchmark
+    public BufferedImage toBufferedImage() {
+        return image.toBufferedImage();
+    }
+}
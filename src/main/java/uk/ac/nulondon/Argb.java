@@ -0,0 +1,34 @@
+package uk.ac.nulondon;
+
+/**
+ * Layout of a packed ARGB color: alpha, red, green and blue from the highest byte to the lowest
+ */
+final class Argb {
+    static final int OPAQUE = 0xFF000000;
+    static final int RED_SHIFT = 16;
+    static final int GREEN_SHIFT = 8;
+    static final int CHANNEL_MASK = 0xFF; //One channel once shifted to the lowest byte
+    static final int MAX_CHANNEL_SUM = 3 * CHANNEL_MASK;
+
+    private Argb() {
+    }
+
+    static int red(int argb) {
+        return (argb >> RED_SHIFT) & CHANNEL_MASK;
+    }
+
+    static int green(int argb) {
+        return (argb >> GREEN_SHIFT) & CHANNEL_MASK;
+    }
+
+    static int blue(int argb) {
+        return argb & CHANNEL_MASK;
+    }
+
+    /**
+     * @return Opaque color with the given channels, each between 0 and 255
+     */
+    static int pack(int red, int green, int blue) {
+        return OPAQUE | red << RED_SHIFT | green << GREEN_SHIFT | blue;
+    }
+}
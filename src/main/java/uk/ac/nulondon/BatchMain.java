@@ -0,0 +1,416 @@
+package uk.ac.nulondon;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/*APPLICATION CONTROLLER LAYER*/
+
+/**
+ * Non-interactive carving of a whole directory of images, one virtual thread per image.
+ * The number of images in memory at once is limited by an estimate of their size.
+ */
+public class BatchMain {
+    private static final int BYTES_PER_PIXEL = 32; //Decoded image when it fits, packed pixels, energy and seam table
+    private static final int MAPPED_BYTES_PER_PIXEL = 4; //Only the carved image, on its way to the encoder
+    private static final int KILOBYTE = 1024;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double PIXELS_PER_MEGAPIXEL = 1e6;
+    private static final int DEFAULT_BAND = 8;
+    private static final double PERCENT = 100;
+
+    /**
+     * What the seams are made of
+     */
+    enum Criterion {
+        ENERGY, GREEN
+    }
+
+    private Path inputDir;
+    private String glob = "*";
+    private Path outputDir = Paths.get("target", "batch");
+    private int targetWidth = -1;
+    private int seams = -1;
+    private int[] widths; //Several widths carved from one removal order, null for a single size
+    private int targetHeight = -1;
+    private Criterion criterion = Criterion.ENERGY;
+    private long memoryBytes = Runtime.getRuntime().maxMemory() / 2;
+    private int levels = 0; //Approximate seams on a smaller copy of the energy, 0 for exact seams
+    private int band = DEFAULT_BAND;
+    private EnergyFunction function = EnergyFunction.sobel();
+    private boolean bulk = false; //Many seams from a single seam search
+    private Path metricsFile; //Where the metrics of every image are written, null to not measure anything
+    private EnergyCache energyCache; //Energy of images seen before, null to not cache anything
+    private int threads = 1; //Threads per image, several images are already carved side by side
+    private boolean mapped = false; //Images kept in scratch files next to the output instead of on the heap
+
+    /**
+     * Print how to use the batch mode
+     */
+    private static void printUsage() {
+        System.out.println("Usage: --input <directory or glob> [--width <pixels> | --seams <count>]");
+        System.out.println("       [--height <pixels>] [--widths <pixels>,<pixels>,...]");
+        System.out.println("       [--energy energy|green] [--output <directory>] [--memory <megabytes>]");
+        System.out.println("       [--levels <count> [--band <pixels>]] [--function sobel|dual-gradient|forward]");
+        System.out.println("       [--removal exact|bulk] [--metrics <json file>] [--cache <megabytes>]");
+        System.out.println("       [--threads <count>] [--storage heap|mapped]");
+    }
+
+    /**
+     * Read the command line options
+     * @param args command line
+     */
+    BatchMain(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            String option = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[i + 1];
+            switch (option) {
+                case "--input" -> {
+                    setInput(value);
+                }
+                case "--output" -> {
+                    outputDir = Paths.get(value);
+                }
+                case "--width" -> {
+                    targetWidth = Integer.parseInt(value);
+                }
+                case "--seams" -> {
+                    seams = Integer.parseInt(value);
+                }
+                case "--widths" -> {
+                    widths = Arrays.stream(value.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+                }
+                case "--height" -> {
+                    targetHeight = Integer.parseInt(value);
+                }
+                case "--energy" -> {
+                    criterion = Criterion.valueOf(value.toUpperCase(Locale.ROOT));
+                }
+                case "--memory" -> {
+                    memoryBytes = Long.parseLong(value) * KILOBYTE * KILOBYTE;
+                }
+                case "--levels" -> {
+                    levels = Integer.parseInt(value);
+                }
+                case "--band" -> {
+                    band = Integer.parseInt(value);
+                }
+                case "--function" -> {
+                    function = energyFunction(value);
+                }
+                case "--metrics" -> {
+                    metricsFile = Paths.get(value);
+                }
+                case "--threads" -> {
+                    threads = Integer.parseInt(value);
+                }
+                case "--cache" -> {
+                    energyCache = new EnergyCache(Long.parseLong(value) * KILOBYTE * KILOBYTE); //For this run only
+                }
+                case "--storage" -> {
+                    mapped = switch (value.toLowerCase(Locale.ROOT)) {
+                        case "heap" -> false;
+                        case "mapped" -> true;
+                        default -> throw new IllegalArgumentException("Unknown storage " + value);
+                    };
+                }
+                case "--removal" -> {
+                    bulk = switch (value.toLowerCase(Locale.ROOT)) {
+                        case "exact" -> false;
+                        case "bulk" -> true;
+                        default -> throw new IllegalArgumentException("Unknown removal " + value);
+                    };
+                }
+                default -> throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (inputDir == null) {
+            throw new IllegalArgumentException("No input given");
+        }
+        if (widths != null && (targetWidth > 0 || seams >= 0 || targetHeight > 0 || criterion != Criterion.ENERGY)) {
+            throw new IllegalArgumentException("Several widths only go with the lowest energy seams");
+        }
+        if (widths != null && (widths.length == 0 || Arrays.stream(widths).anyMatch(width -> width < 1))) {
+            throw new IllegalArgumentException("Widths must be positive");
+        }
+        if (targetWidth > 0 && seams >= 0) {
+            throw new IllegalArgumentException("Give either a positive width or a number of seams");
+        }
+        if (targetWidth < 1 && seams < 0 && targetHeight < 1 && widths == null) {
+            throw new IllegalArgumentException("Give a positive width, a number of seams or a positive height");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be positive");
+        }
+        if (levels < 0 || band < 1) {
+            throw new IllegalArgumentException("Levels cannot be negative and the band must be positive");
+        }
+        if (mapped && (widths != null || targetHeight > 0 || criterion != Criterion.ENERGY || levels > 0 || bulk)) {
+            throw new IllegalArgumentException("Mapped storage only removes exact lowest energy vertical seams");
+        }
+    }
+
+    /**
+     * Energy function with the given name
+     */
+    private static EnergyFunction energyFunction(String name) {
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "sobel" -> EnergyFunction.sobel();
+            case "dual-gradient" -> EnergyFunction.dualGradient();
+            case "forward" -> EnergyFunction.forward();
+            default -> throw new IllegalArgumentException("Unknown energy function " + name);
+        };
+    }
+
+    /**
+     * A directory takes every file in it, otherwise the last part of the path is a glob like *.png
+     */
+    private void setInput(String input) {
+        Path path = Paths.get(input);
+        if (Files.isDirectory(path)) {
+            inputDir = path;
+        } else {
+            inputDir = path.getParent() == null ? Paths.get(".") : path.getParent();
+            glob = path.getFileName().toString();
+        }
+    }
+
+    /**
+     * Carve every image and print the timings
+     * @throws IOException if the input directory cannot be listed
+     * @throws InterruptedException if interrupted while waiting for the images
+     */
+    void run() throws IOException, InterruptedException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(inputDir, glob)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(null);
+        Files.createDirectories(outputDir);
+
+        int budget = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBytes / KILOBYTE));
+        Semaphore memory = new Semaphore(budget, true);
+        long start = System.nanoTime();
+        List<Future<Long>> results = new ArrayList<>();
+        List<Metrics> metrics = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path file : files) {
+                Metrics measured = metricsFile == null
+                        ? Metrics.disabled() : new Metrics(file.getFileName().toString());
+                metrics.add(measured);
+                results.add(executor.submit(() -> carve(file, memory, budget, measured)));
+            }
+        }
+        double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+
+        int done = 0;
+        long pixels = 0;
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                pixels += results.get(i).get();
+                done++;
+            } catch (ExecutionException e) {
+                System.out.println(files.get(i).getFileName() + " failed: " + e.getCause().getMessage());
+            }
+        }
+        System.out.printf(Locale.ROOT, "Processed %d of %d images (%.1f megapixels) in %.2f s: "
+                        + "%.2f images/s, %.2f megapixels/s%n", done, files.size(), pixels / PIXELS_PER_MEGAPIXEL,
+                seconds, done / seconds, pixels / PIXELS_PER_MEGAPIXEL / seconds);
+        if (metricsFile != null) {
+            Files.writeString(metricsFile, Metrics.toJson(metrics));
+        }
+        if (energyCache != null) {
+            EnergyCache.Stats stats = energyCache.stats();
+            System.out.printf(Locale.ROOT, "Energy cache: %d hits, %d misses (%.0f%% hit rate), %d evictions, "
+                            + "%d entries, %.1f MB%n", stats.hits(), stats.misses(), stats.hitRate() * PERCENT,
+                    stats.evictions(), stats.entries(), stats.bytes() / (double) (KILOBYTE * KILOBYTE));
+        }
+    }
+
+    /**
+     * Carve a single image once there is enough memory for it
+     * @param file image to carve
+     * @param memory kilobytes left in the memory budget
+     * @param budget whole memory budget, an image bigger than it runs on its own
+     * @param metrics where the measurements of the image go
+     * @return number of pixels of the image
+     */
+    private long carve(Path file, Semaphore memory, int budget, Metrics metrics)
+            throws IOException, InterruptedException {
+        long size = pixelCount(file);
+        int permits = (int) Math.min(budget,
+                Math.max(1, size * (mapped ? MAPPED_BYTES_PER_PIXEL : BYTES_PER_PIXEL) / KILOBYTE));
+        memory.acquire(permits);
+        try {
+            long start = System.nanoTime();
+            if (mapped) {
+                carveMapped(file, metrics, start);
+                return size;
+            }
+            Metrics.Sample decode = metrics.start(Metrics.Operation.DECODE);
+            PackedImage image = PackedImage.read(file.toFile()); //In strips when too big to decode whole
+            decode.stop();
+            image.setMetrics(metrics);
+            image.setEnergyFunction(function);
+            image.setEnergyCache(energyCache);
+            image.setParallelism(threads);
+            image.setBulkRemoval(bulk);
+            int originalWidth = image.getWidth();
+            int originalHeight = image.getHeight();
+            if (widths != null) {
+                carveWidths(file, image);
+                System.out.printf(Locale.ROOT, "%s %dx%d -> %d widths in %.1f ms%n", file.getFileName(), originalWidth,
+                        originalHeight, widths.length, (System.nanoTime() - start) / NANOS_PER_MILLI);
+                return (long) originalWidth * originalHeight;
+            }
+            int width = targetWidth > 0 ? targetWidth : seams >= 0 ? originalWidth - seams : originalWidth;
+            int height = targetHeight > 0 ? targetHeight : originalHeight;
+            if (criterion == Criterion.GREEN) {
+                if (width > originalWidth || width < 1 || height > originalHeight) {
+                    throw new IllegalArgumentException("Greenest seams can only shrink the image to a positive size");
+                }
+                while (image.getWidth() > width) {
+                    image.removeSeam(image.getGreenestSeam());
+                }
+                while (image.getHeight() > height) {
+                    image.removeSeam(image.getGreenestSeam(Orientation.HORIZONTAL), Orientation.HORIZONTAL);
+                }
+            } else {
+                if (levels > 0) { //Report how far the first approximate seam is from the exact one
+                    image.setApproximation(levels, band);
+                    PackedImage.Divergence divergence = image.measureApproximation(Orientation.VERTICAL);
+                    System.out.printf(Locale.ROOT, "%s approximate seam: up to %d px (%.2f px on average) "
+                                    + "from the exact one, %+.2f%% energy%n", file.getFileName(),
+                            divergence.maxDistance(), divergence.meanDistance(), divergence.excessEnergy() * PERCENT);
+                }
+                image.retarget(width, height);
+            }
+            BufferedImage carved = image.toBufferedImage();
+            Metrics.Sample encode = metrics.start(Metrics.Operation.ENCODE);
+            ImageIO.write(carved, "png", outputDir.resolve(outputName(file)).toFile());
+            encode.stop();
+            System.out.printf(Locale.ROOT, "%s %dx%d -> %dx%d in %.1f ms%n", file.getFileName(), originalWidth,
+                    originalHeight, image.getWidth(), image.getHeight(),
+                    (System.nanoTime() - start) / NANOS_PER_MILLI);
+            return (long) originalWidth * originalHeight;
+        } finally {
+            memory.release(permits);
+        }
+    }
+
+    /**
+     * Carve vertical seams off an image kept in a scratch file in the output directory, see {@link MappedImage}
+     * @param start when carving the image started
+     */
+    private void carveMapped(Path file, Metrics metrics, long start) throws IOException {
+        Path store = Files.createTempFile(outputDir, file.getFileName().toString(), ".scratch");
+        try {
+            Metrics.Sample decode = metrics.start(Metrics.Operation.DECODE);
+            try (MappedImage image = MappedImage.read(file.toFile(), store)) {
+                decode.stop();
+                image.setEnergyFunction(function);
+                int originalWidth = image.getWidth();
+                image.resizeToWidth(targetWidth > 0 ? targetWidth : originalWidth - seams);
+                BufferedImage carved = image.toBufferedImage();
+                Metrics.Sample encode = metrics.start(Metrics.Operation.ENCODE);
+                ImageIO.write(carved, "png", outputDir.resolve(outputName(file)).toFile());
+                encode.stop();
+                System.out.printf(Locale.ROOT, "%s %dx%d -> %dx%d in %.1f ms%n", file.getFileName(), originalWidth,
+                        image.getHeight(), image.getWidth(), image.getHeight(),
+                        (System.nanoTime() - start) / NANOS_PER_MILLI);
+            }
+        } finally {
+            Files.deleteIfExists(store); //Already gone once the image is closed, unless reading it failed
+        }
+    }
+
+    /**
+     * Carve the image once down to the narrowest width and write every width from the order the pixels went in
+     */
+    private void carveWidths(Path file, PackedImage image) throws IOException {
+        int narrowest = Arrays.stream(widths).min().orElseThrow();
+        if (Arrays.stream(widths).anyMatch(width -> width > image.getWidth())) {
+            throw new IllegalArgumentException("Widths can only shrink the image");
+        }
+        RemovalOrder order = image.removalOrder(narrowest);
+        for (int width : widths) {
+            ImageIO.write(order.toWidth(width), "png", outputDir.resolve(outputName(file, width)).toFile());
+        }
+    }
+
+    /**
+     * Read the size of an image without decoding its pixels
+     */
+    private static long pixelCount(Path file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Not an image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Output file name, e.g. beach.png becomes beach-carved.png
+     */
+    private static String outputName(Path file) {
+        return baseName(file) + "-carved.png";
+    }
+
+    /**
+     * Output file name of one of several widths, e.g. beach.png carved to 320 pixels becomes beach-320.png
+     */
+    private static String outputName(Path file, int width) {
+        return baseName(file) + "-" + width + ".png";
+    }
+
+    private static String baseName(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    public static void main(String[] args) {
+        try {
+            new BatchMain(args).run();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            printUsage();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package uk.ac.nulondon;
+
+import java.util.Arrays;
+
+/**
+ * Tracks which pixels of every row need their energy recalculated after seam edits.
+ * Each row keeps a single band of columns, pixels outside the band still have valid energy.
+ */
+class DirtyBands {
+    private int height;
+    private int[] from; //First dirty column of every row
+    private int[] to; //Last dirty column of every row, smaller than from when the row is clean
+    private boolean all = true; //Nothing has been calculated yet
+
+    DirtyBands(int height) {
+        this.height = height;
+        from = new int[height];
+        to = new int[height];
+        clearRows();
+    }
+
+    /**
+     * Everything needs to be recalculated
+     */
+    void markAll() {
+        all = true;
+    }
+
+    /**
+     * Rows were added or removed all over the image, so everything needs to be recalculated
+     * @param newHeight new height of the image
+     */
+    void resize(int newHeight) {
+        ensureCapacity(newHeight);
+        height = newHeight;
+        markAll();
+    }
+
+    private void ensureCapacity(int rows) {
+        if (from.length < rows) {
+            from = Arrays.copyOf(from, Math.max(rows, from.length + from.length / 2));
+            to = Arrays.copyOf(to, from.length);
+        }
+    }
+
+    /**
+     * Whole image has been recalculated
+     */
+    void clearAll() {
+        all = false;
+        clearRows();
+    }
+
+    private void clearRows() {
+        for (int row = 0; row < height; row++) {
+            clear(row);
+        }
+    }
+
+    boolean isAllDirty() {
+        return all;
+    }
+
+    boolean isDirty(int row) {
+        return from[row] <= to[row];
+    }
+
+    int from(int row) {
+        return from[row];
+    }
+
+    int to(int row) {
+        return to[row];
+    }
+
+    void clear(int row) {
+        from[row] = Integer.MAX_VALUE;
+        to[row] = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Seam pixels were replaced in place
+     * @param seam column of the seam in every row
+     * @param width width of the image
+     */
+    void seamChanged(int[] seam, int width) {
+        if (seam == null) {
+            markAll();
+            return;
+        }
+        for (int row = 0; row < height; row++) {
+            mark(row, lowest(seam, row) - 1, highest(seam, row) + 1, width);
+        }
+    }
+
+    /**
+     * Seam was removed, so every row got shorter by one pixel
+     * @param seam column of the removed pixel in every row
+     * @param width width of the image after removal
+     */
+    void seamRemoved(int[] seam, int width) {
+        if (seam == null) {
+            markAll();
+            return;
+        }
+        for (int row = 0; row < height; row++) {
+            if (isDirty(row)) { //Columns right of the seam moved to the left
+                if (from[row] > seam[row]) {
+                    from[row]--;
+                }
+                if (to[row] >= seam[row]) {
+                    to[row]--;
+                }
+            }
+            mark(row, lowest(seam, row) - 1, highest(seam, row), width);
+        }
+    }
+
+    /**
+     * Seam was inserted, so every row got longer by one pixel
+     * @param seam column of the inserted pixel in every row
+     * @param width width of the image after insertion
+     */
+    void seamAdded(int[] seam, int width) {
+        if (seam == null) {
+            markAll();
+            return;
+        }
+        for (int row = 0; row < height; row++) {
+            if (isDirty(row)) { //Columns from the seam on moved to the right
+                if (from[row] >= seam[row]) {
+                    from[row]++;
+                }
+                if (to[row] >= seam[row]) {
+                    to[row]++;
+                }
+            }
+            mark(row, lowest(seam, row) - 1, highest(seam, row) + 1, width);
+        }
+    }
+
+    /**
+     * Horizontal seam pixels were replaced in place
+     * @param seam row of the seam in every column
+     * @param width width of the image
+     */
+    void horizontalSeamChanged(int[] seam, int width) {
+        for (int col = 0; col < seam.length; col++) {
+            markColumn(col, lowest(seam, col) - 1, highest(seam, col) + 1, width);
+        }
+    }
+
+    /**
+     * Horizontal seam was removed, so every column got shorter by one pixel
+     * @param seam row of the removed pixel in every column
+     * @param width width of the image
+     */
+    void horizontalSeamRemoved(int[] seam, int width) {
+        int top = Arrays.stream(seam).min().orElse(0);
+        for (int row = top; row < height - 1; row++) { //Row now holds pixels of itself or of the row below
+            from[row] = Math.min(from[row], from[row + 1]);
+            to[row] = Math.max(to[row], to[row + 1]);
+        }
+        height--;
+        clear(height);
+        for (int col = 0; col < seam.length; col++) {
+            markColumn(col, lowest(seam, col) - 1, highest(seam, col), width);
+        }
+    }
+
+    /**
+     * Horizontal seam was inserted, so every column got longer by one pixel
+     * @param seam row of the inserted pixel in every column
+     * @param width width of the image
+     */
+    void horizontalSeamAdded(int[] seam, int width) {
+        int top = Arrays.stream(seam).min().orElse(0);
+        ensureCapacity(height + 1);
+        clear(height);
+        height++;
+        for (int row = height - 1; row > top; row--) { //Row now holds pixels of itself or of the row above
+            from[row] = Math.min(from[row], from[row - 1]);
+            to[row] = Math.max(to[row], to[row - 1]);
+        }
+        for (int col = 0; col < seam.length; col++) {
+            markColumn(col, lowest(seam, col) - 1, highest(seam, col) + 1, width);
+        }
+    }
+
+    /**
+     * Mark a column of pixels over the given rows
+     */
+    private void markColumn(int col, int first, int last, int width) {
+        for (int row = Math.max(0, first); row <= Math.min(height - 1, last); row++) {
+            mark(row, col, col, width);
+        }
+    }
+
+    /**
+     * Extend the band of the row so that it covers the given columns
+     */
+    private void mark(int row, int first, int last, int width) {
+        from[row] = Math.max(0, Math.min(from[row], first));
+        to[row] = Math.min(width - 1, Math.max(to[row], last));
+    }
+
+    /**
+     * Smallest seam position among the line and its neighbours, which share its energy neighbourhood
+     */
+    private static int lowest(int[] seam, int line) {
+        int min = seam[line];
+        if (line > 0) {
+            min = Math.min(min, seam[line - 1]);
+        }
+        if (line < seam.length - 1) {
+            min = Math.min(min, seam[line + 1]);
+        }
+        return min;
+    }
+
+    private static int highest(int[] seam, int line) {
+        int max = seam[line];
+        if (line > 0) {
+            max = Math.max(max, seam[line - 1]);
+        }
+        if (line < seam.length - 1) {
+            max = Math.max(max, seam[line + 1]);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,265 @@
+package uk.ac.nulondon;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*APPLICATION SERVICE LAYER*/
+
+/**
+ * Hosts many editing sessions in one JVM. Every session owns an {@link ImageEditor} with its own image and history
+ * and runs its commands one at a time, in the order they were submitted. The commands of all the sessions share
+ * a fixed pool of worker threads, which do the energy and seam work. The editors calculate on the worker running
+ * their command rather than forking onto a pool of their own, so the number of threads bounds all of that work.
+ * A session only has one command queued
+ * on the pool at a time and goes to the back of the queue after it, so a busy session cannot starve the others.
+ * Submitting waits once too many commands are pending, which slows callers down instead of piling up work.
+ * Sessions editing the same image share its energy through an {@link EnergyCache}.
+ */
+public class EditorService implements AutoCloseable {
+    /**
+     * Work done with the editor of a session
+     * @param <T> result of the work
+     */
+    @FunctionalInterface
+    public interface Task<T> {
+        T run(ImageEditor editor) throws IOException;
+    }
+
+    private final ExecutorService workers;
+    private final Semaphore pending; //Commands submitted and not done yet, across all the sessions
+    private final Path previewRoot;
+    private final EnergyCache energyCache;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private volatile boolean closed = false;
+
+    /**
+     * @param threads number of worker threads shared by the sessions
+     * @param maxPending number of commands which can wait or run before submitting waits
+     * @param previewRoot directory holding a preview directory per session
+     */
+    public EditorService(int threads, int maxPending, Path previewRoot) {
+        this(threads, maxPending, previewRoot, EnergyCache.shared());
+    }
+
+    /**
+     * @param threads number of worker threads shared by the sessions
+     * @param maxPending number of commands which can wait or run before submitting waits
+     * @param previewRoot directory holding a preview directory per session
+     * @param energyCache energy and first seams shared by the sessions, null to not cache anything
+     */
+    public EditorService(int threads, int maxPending, Path previewRoot, EnergyCache energyCache) {
+        if (threads < 1 || maxPending < 1) {
+            throw new IllegalArgumentException("Need at least one thread and one pending command");
+        }
+        AtomicInteger count = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, runnable ->
+                new Thread(runnable, "editor-worker-" + count.incrementAndGet()));
+        pending = new Semaphore(maxPending, true); //Waiting callers get in first come, first served
+        this.previewRoot = previewRoot;
+        this.energyCache = energyCache;
+    }
+
+    /**
+     * Start a new session with an empty editor
+     * @return id of the session
+     * @throws IOException if its preview directory cannot be created
+     * @throws IllegalStateException if the service is closed
+     */
+    public String openSession() throws IOException {
+        checkOpen();
+        String id = "session-" + nextId.getAndIncrement();
+        Path previews = Files.createDirectories(previewRoot.resolve(id));
+        ImageEditor editor = new ImageEditor(previews);
+        editor.setEnergyCache(energyCache);
+        editor.setParallelism(1); //The workers are the only threads doing the work of the sessions
+        sessions.put(id, new Session(editor));
+        return id;
+    }
+
+    /**
+     * @return Number of open sessions
+     */
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Run a command on the editor of a session once the commands submitted before it are done,
+     * waiting first if too many commands are pending
+     * @param sessionId session to run the command in
+     * @param task command
+     * @param <T> result of the command
+     * @return result of the command, or the exception it threw
+     * @throws InterruptedException if interrupted while waiting for room
+     * @throws IllegalStateException if the service is closed
+     */
+    public <T> CompletableFuture<T> submit(String sessionId, Task<T> task) throws InterruptedException {
+        checkOpen();
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            throw new IllegalArgumentException("No session " + sessionId);
+        }
+        return session.submit(task);
+    }
+
+    /**
+     * Close a session after the commands submitted to it so far
+     * @param sessionId session to close
+     * @return done once the session is closed
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public CompletableFuture<Void> closeSession(String sessionId) throws InterruptedException {
+        Session session = sessions.remove(sessionId);
+        if (session == null) {
+            throw new IllegalArgumentException("No session " + sessionId);
+        }
+        return session.close();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Service is closed");
+        }
+    }
+
+    /**
+     * Close every session and stop the workers once every command submitted is done.
+     * If interrupted, stops waiting and leaves the interrupt flag set, the commands already on the workers
+     * still run and the ones waiting behind them fail.
+     */
+    @Override
+    public void close() {
+        closed = true; //Nothing new gets in, the sessions are closed behind what they have already
+        try {
+            List<CompletableFuture<Void>> closing = new ArrayList<>();
+            for (String id : List.copyOf(sessions.keySet())) {
+                Session session = sessions.remove(id);
+                if (session != null) { //Not closed on its own meanwhile
+                    closing.add(session.close());
+                }
+            }
+            CompletableFuture.allOf(closing.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            workers.shutdown();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Editor of a session and the commands waiting for it
+     */
+    private final class Session {
+        private final ImageEditor editor;
+        private final Deque<Command<?>> queue = new ArrayDeque<>();
+        private boolean running = false; //Whether a command of the session is on the pool
+
+        Session(ImageEditor editor) {
+            this.editor = editor;
+        }
+
+        <T> CompletableFuture<T> submit(Task<T> task) throws InterruptedException {
+            pending.acquire();
+            Command<T> command = new Command<>(task);
+            synchronized (this) {
+                queue.add(command);
+                if (!running) {
+                    running = true;
+                    dispatch();
+                }
+            }
+            return command.result;
+        }
+
+        /**
+         * Close the editor after the commands submitted so far
+         */
+        CompletableFuture<Void> close() throws InterruptedException {
+            return submit(closing -> {
+                closing.close(); //Writes its last preview
+                return null;
+            });
+        }
+
+        /**
+         * Run the oldest command, then queue the session again behind the other sessions if it has more
+         */
+        private void runNext() {
+            Command<?> command;
+            synchronized (this) {
+                command = queue.poll();
+            }
+            try {
+                command.run();
+            } finally {
+                synchronized (this) {
+                    if (queue.isEmpty()) {
+                        running = false;
+                    } else {
+                        dispatch();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Put the session on the pool, or fail every command waiting for it once the pool is shut down
+         */
+        private void dispatch() {
+            try {
+                workers.execute(this::runNext);
+            } catch (RejectedExecutionException e) {
+                running = false;
+                for (Command<?> command : queue) {
+                    command.fail(e);
+                }
+                queue.clear();
+            }
+        }
+
+        /**
+         * Command waiting for the session and its result
+         * @param <T> result of the command
+         */
+        private final class Command<T> {
+            private final Task<T> task;
+            private final CompletableFuture<T> result = new CompletableFuture<>();
+
+            Command(Task<T> task) {
+                this.task = task;
+            }
+
+            void run() {
+                try {
+                    result.complete(task.run(editor));
+                } catch (Throwable e) { //Even an error only fails this command, the session goes on
+                    result.completeExceptionally(e);
+                } finally {
+                    pending.release();
+                }
+            }
+
+            void fail(Throwable e) {
+                result.completeExceptionally(e);
+                pending.release();
+            }
+        }
+    }
+}
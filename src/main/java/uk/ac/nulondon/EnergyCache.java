@@ -0,0 +1,176 @@
+package uk.ac.nulondon;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Energy maps and first seams of images seen before, so that a job repeated on the same image skips
+ * the energy pass and the first seam search. Entries are keyed by a SHA-256 digest of the pixels, the size of the image
+ * and what was calculated, e.g. the Sobel energy or the greenest vertical seam. The least recently used
+ * entries are dropped once the entries take more than the byte budget. Only images whose pixels are still
+ * the ones read put anything in, see {@link PackedImage#setEnergyCache(EnergyCache)}. Safe to share between threads.
+ * <p>
+ * {@link #shared()} is the cache of the whole process.
+ */
+public final class EnergyCache {
+    private static final long DEFAULT_BUDGET_BYTES = 256L * 1024 * 1024;
+    static final long ENTRY_OVERHEAD_BYTES = 192; //Key with its digest string, map entry and array header
+    private static final EnergyCache SHARED = new EnergyCache(DEFAULT_BUDGET_BYTES);
+
+    /**
+     * Counters of the cache at one point in time
+     * @param hits lookups which found an entry
+     * @param misses lookups which found nothing
+     * @param evictions entries dropped to stay within the budget
+     * @param entries entries in the cache
+     * @param bytes memory used by the entries
+     */
+    public record Stats(long hits, long misses, long evictions, int entries, long bytes) {
+        /**
+         * @return Share of the lookups which found an entry, 0 before the first lookup
+         */
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    /**
+     * What was calculated for which pixels
+     * @param contentDigest SHA-256 digest of the pixels
+     * @param width width of the image
+     * @param height height of the image
+     * @param criterion what the entry holds
+     */
+    private record Key(String contentDigest, int width, int height, String criterion) {
+    }
+
+    /**
+     * Cached array and the memory it takes
+     */
+    private record Entry(Object value, long bytes) {
+    }
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); //Least recently used first
+    private long budgetBytes;
+    private long usedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param budgetBytes memory the entries can take
+     */
+    public EnergyCache(long budgetBytes) {
+        setBudget(budgetBytes);
+    }
+
+    /**
+     * @return Cache shared by every image of the process, 256 MB by default
+     */
+    public static EnergyCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Change how much memory the entries can take, dropping the least recently used ones if needed
+     * @param bytes memory the entries can take
+     */
+    public synchronized void setBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Budget cannot be negative: " + bytes);
+        }
+        budgetBytes = bytes;
+        evict();
+    }
+
+    /**
+     * @return Counters of the cache so far
+     */
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size(), usedBytes);
+    }
+
+    /**
+     * Drop every entry, the counters are kept
+     */
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * Whether an entry of the given size would be kept, checked before building it
+     * @param bytes memory taken by the array of the entry
+     * @return False if the entry is larger than the whole budget
+     */
+    synchronized boolean accepts(long bytes) {
+        return bytes + ENTRY_OVERHEAD_BYTES <= budgetBytes;
+    }
+
+    /**
+     * @param function name of the energy function
+     * @return Row-major energy of the pixels, not to be changed, or null
+     */
+    double[] getEnergy(String contentDigest, int width, int height, String function) {
+        return (double[]) get(new Key(contentDigest, width, height, "energy " + function));
+    }
+
+    /**
+     * @param energy row-major energy of the pixels, kept as it is
+     */
+    void putEnergy(String contentDigest, int width, int height, String function, double[] energy) {
+        put(new Key(contentDigest, width, height, "energy " + function), energy, (long) energy.length * Double.BYTES);
+    }
+
+    /**
+     * @param criterion what the seam is made of and its orientation
+     * @return Seam found for the pixels, not to be changed, or null
+     */
+    int[] getSeam(String contentDigest, int width, int height, String criterion) {
+        return (int[]) get(new Key(contentDigest, width, height, "seam " + criterion));
+    }
+
+    /**
+     * @param seam seam found for the pixels, kept as it is
+     */
+    void putSeam(String contentDigest, int width, int height, String criterion, int[] seam) {
+        put(new Key(contentDigest, width, height, "seam " + criterion), seam, (long) seam.length * Integer.BYTES);
+    }
+
+    private synchronized Object get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value();
+    }
+
+    private synchronized void put(Key key, Object value, long bytes) {
+        if (!accepts(bytes)) {
+            return; //Would only push everything else out
+        }
+        bytes += ENTRY_OVERHEAD_BYTES;
+        Entry previous = entries.put(key, new Entry(value, bytes));
+        if (previous != null) {
+            usedBytes -= previous.bytes();
+        }
+        usedBytes += bytes;
+        evict();
+    }
+
+    /**
+     * Drop the least recently used entries until the rest fits the budget
+     */
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (usedBytes > budgetBytes && eldest.hasNext()) {
+            usedBytes -= eldest.next().bytes();
+            eldest.remove();
+            evictions++;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package uk.ac.nulondon;
+
+/**
+ * How the energy of the pixels of a {@link PackedImage} is calculated, a whole row at a time.
+ * Pixels on the edges of the image always get their brightness as energy, so implementations
+ * only see rows with a row above and below them and columns with a column on each side.
+ * <p>
+ * The built-in functions use the incubating vector API when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}, and plain loops giving the same values otherwise.
+ */
+public interface EnergyFunction {
+    /**
+     * A row of pixels with the rows above and below it, all read from and written to the same planes
+     * @param argb ARGB value of every pixel
+     * @param channelSums sum of the red, green and blue channels of every pixel, same layout as argb
+     * @param energy filled in with the energy of every calculated pixel, same layout as argb
+     * @param above index of the first pixel of the row above
+     * @param current index of the first pixel of the row
+     * @param below index of the first pixel of the row below
+     */
+    record Row(int[] argb, short[] channelSums, double[] energy, int above, int current, int below) {
+    }
+
+    /**
+     * Calculate the energy of a range of pixels of a row
+     * @param row pixels of the row and of its neighbours
+     * @param from first column to calculate, at least 1
+     * @param to column after the last one to calculate, at most the width minus 1
+     */
+    void calculateRow(Row row, int from, int to);
+
+    /**
+     * Sobel operator on the brightness of the pixels, the energy used since the first version of the editor
+     * @return Sobel energy
+     */
+    static EnergyFunction sobel() {
+        return isVectorized() ? VectorEnergy.SOBEL : ScalarEnergy.SOBEL;
+    }
+
+    /**
+     * Difference between the colors of the left and right neighbours plus the one between the pixels
+     * above and below, each channel counted on its own
+     * @return dual gradient energy
+     */
+    static EnergyFunction dualGradient() {
+        return isVectorized() ? VectorEnergy.DUAL_GRADIENT : ScalarEnergy.DUAL_GRADIENT;
+    }
+
+    /**
+     * Brightness difference between the pixels which become neighbours once the pixel is carved,
+     * which keeps carving from creating new edges
+     * @return forward energy
+     */
+    static EnergyFunction forward() {
+        return isVectorized() ? VectorEnergy.FORWARD : ScalarEnergy.FORWARD;
+    }
+
+    /**
+     * @return Whether the vector API module is loaded, the vectorized functions cannot be used otherwise,
+     * and the CPU runs vectors wide enough for them to be quicker than plain loops
+     */
+    static boolean isVectorized() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorEnergy.isNative();
+    }
+}
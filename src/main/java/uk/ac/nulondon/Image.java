@@ -2,10 +2,11 @@ package uk.ac.nulondon;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
-import java.util.function.Function;
+import java.util.RandomAccess;
+import java.util.function.ToDoubleFunction;
 
 public class Image {
     private final List<Pixel> rows;
@@ -13,15 +14,26 @@ public class Image {
     private int width;
     private int height;
 
+    private final DirtyBands dirty; //Pixels whose energy is out of date
+    private ParallelRows energyRows = ParallelRows.of(1); //Threads calculating energy
+    private final SeamSolver solver = new SeamSolver(); //Keeps its buffers between seams
+    private final Pixel[] anchors; //Pixel next to the last edited seam pixel of every row, null before any edit
+    private final int[] anchorColumns; //Column of every anchor
+    private Pixel[] grid = new Pixel[0]; //Every pixel row after row, as of the last seam search
 
     public Image(BufferedImage img) {
         width = img.getWidth();
         height = img.getHeight();
         rows = new ArrayList<>();
+        dirty = new DirtyBands(height);
+        anchors = new Pixel[height];
+        anchorColumns = new int[height];
+        int[] values = new int[width]; //One row of the image, read in bulk
         Pixel current = null;
         for (int row = 0; row < height; row++) {
+            Rasters.read(img, row, 1, values, 0, width);
             for (int col = 0; col < width; col++) {
-                Pixel pixel = new Pixel(img.getRGB(col, row));
+                Pixel pixel = new Pixel(values[col]);
                 if (col == 0) {
                     rows.add(pixel);
                 } else {
@@ -35,11 +47,12 @@ public class Image {
 
     public BufferedImage toBufferedImage() {
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] data = Rasters.data(image); //Written directly, row after row
+        int index = 0;
         for (int row = 0; row < height; row++) {
             Pixel pixel = rows.get(row);
-            int col = 0;
             while (pixel != null) {
-                image.setRGB(col++, row, pixel.color.getRGB());
+                data[index++] = pixel.rgb;
                 pixel = pixel.right;
             }
         }
@@ -71,28 +84,118 @@ public class Image {
      * Calculate energy for all the pixels in the image
      */
     public void calculateEnergy() {
+        energyRows.forEachBand(height, (from, to) -> {
+            for (int i = from; i < to; i++) {//Iterate through image rows
+                calculateEnergy(i, 0, width - 1);
+            }
+        });
+        dirty.clearAll(); //Every pixel has valid energy now
+    }
+
+    /**
+     * Set how many threads calculate the energy of the image. Every row only depends on the rows
+     * above and below it, so bands of rows are calculated in parallel with the same result.
+     * @param parallelism number of threads, 1 to calculate on the calling thread
+     */
+    public void setParallelism(int parallelism) {
+        energyRows = ParallelRows.of(parallelism);
+    }
+
+    /**
+     * Recalculate energy only for the pixels next to seams edited since the last calculation
+     */
+    public void updateEnergy() {
+        if (dirty.isAllDirty()) { //Nothing to reuse
+            calculateEnergy();
+            return;
+        }
         for (int i = 0; i < height; i++) {//Iterate through image rows
-            Pixel curr = rows.get(i); //Current pixel in seam
-            if (i == 0 || i == height - 1){ //If edge pixel (top or bottom row)
-                for (int j = 0; j < width; j++){ //Iterate through row
-                    curr.energy = curr.brightness(); //Edge pixel energy is equal to the brightness of pixel
-                    curr = curr.right; //Move to the right
-                }
-                continue;
+            if (dirty.isDirty(i)) {
+                calculateEnergy(i, dirty.from(i), dirty.to(i));
+                dirty.clear(i);
             }
-            Pixel above = rows.get(i-1);//Pixel has an above pixel
-            Pixel below = rows.get(i+1); //Pixel has a below pixel
-            for (int j = 0; j < width; j++) {//Iterate through row
-                if (j == 0 || j == width - 1){ //If edge pixel (first or last pixel of row)
-                    curr.energy = curr.brightness();//Edge pixel energy is equal to the brightness of pixel
-                }else{
-                    curr.energy = energy(above, curr, below); //Normal energy calculation if not an edge pixel
-                }
-                curr = curr.right;//Move to the right
-                above = above.right; //Move to the right
-                below = below.right; //Move to the right
+        }
+    }
+
+    /**
+     * Calculate energy for a range of pixels in a row
+     * @param i row of the pixels
+     * @param from first column to calculate
+     * @param to last column to calculate
+     */
+    private void calculateEnergy(int i, int from, int to) {
+        Pixel curr = pixelAt(i, from); //Current pixel in row
+        if (i == 0 || i == height - 1){ //If edge pixel (top or bottom row)
+            for (int j = from; j <= to; j++){ //Iterate through row
+                curr.energy = curr.brightness(); //Edge pixel energy is equal to the brightness of pixel
+                curr = curr.right; //Move to the right
+            }
+            return;
+        }
+        Pixel above = pixelAt(i - 1, from);//Pixel has an above pixel
+        Pixel below = pixelAt(i + 1, from); //Pixel has a below pixel
+        for (int j = from; j <= to; j++) {//Iterate through row
+            if (j == 0 || j == width - 1){ //If edge pixel (first or last pixel of row)
+                curr.energy = curr.brightness();//Edge pixel energy is equal to the brightness of pixel
+            }else{
+                curr.energy = energy(above, curr, below); //Normal energy calculation if not an edge pixel
+            }
+            curr = curr.right;//Move to the right
+            above = above.right; //Move to the right
+            below = below.right; //Move to the right
+        }
+    }
+
+    /**
+     * Find a pixel by walking from the start of its row or from the pixel next to the last edit,
+     * whichever is closer, so that energy next to a seam is found without walking the whole row
+     * @param row row of the pixel
+     * @param column column of the pixel
+     * @return pixel at the given position
+     */
+    private Pixel pixelAt(int row, int column) {
+        Pixel pixel = rows.get(row);
+        int at = 0;
+        if (anchors[row] != null && Math.abs(column - anchorColumns[row]) < column) {
+            pixel = anchors[row];
+            at = anchorColumns[row];
+        }
+        for (; at < column; at++) {
+            pixel = pixel.right;
+        }
+        for (; at > column; at--) {
+            pixel = pixel.left;
+        }
+        return pixel;
+    }
+
+    /**
+     * Remember the pixel next to the seam just edited in a row. Every edit crosses every row,
+     * so the anchor of the last edit is always still in the image.
+     */
+    private void anchor(int row, Pixel pixel, int column) {
+        anchors[row] = pixel;
+        anchorColumns[row] = column;
+    }
+
+    /**
+     * Find the column of every pixel of the seam. Seams found by this image know their columns, which hold
+     * while the image is as it was when the seam was found, or back to it after undoing later edits.
+     * The pixels of any other seam are counted from the start of their row.
+     * @param seam Sequence of pixels
+     * @return column of the seam in every row
+     */
+    private int[] columnsOf(List<Pixel> seam) {
+        if (seam instanceof Seam found) {
+            return found.columns;
+        }
+        int[] columns = new int[height];
+        for (int i = 0; i < height; i++) {
+            for (Pixel left = seam.get(i).left; left != null; left = left.left) {
+                columns[i]++;
             }
         }
+        return columns;
     }
 
     /**
@@ -102,6 +205,7 @@ public class Image {
      * @return Previous value of seam
      */
     public List<Pixel> highlightSeam(List<Pixel> seam, Color color) {
+        int[] columns = columnsOf(seam);
         for (int i=0;i<height;i++){ //Iterate through each image row
             Pixel curr = seam.get(i); //Current pixel in seam
             Pixel highlight = new Pixel(color); //Highlight color
@@ -115,7 +219,9 @@ public class Image {
             }else{ //Current pixel has no neighbors
                 rows.set(i,highlight);//Set i to highlight
             }
+            anchor(i, highlight, columns[i]);
         }
+        dirty.seamChanged(columns, width); //Neighbours of the highlight need new energy
         return seam; //Original seam
     }
 
@@ -124,6 +230,7 @@ public class Image {
      * @param seam Sequence of pixels
      */
     public void removeSeam(List<Pixel> seam) {
+        int[] columns = columnsOf(seam);
         for (int i=0;i<height;i++){ //Iterate through rows in image
             Pixel curr = seam.get(i); //Current pixel in seam
             if (curr.left!=null&&curr.right!=null) { //If current pixel has neighbors on right and left
@@ -135,8 +242,14 @@ public class Image {
             }else if (curr.left!=null) { //curr.right == null
                 curr.left.right = null; //Left neighbor's right is nonexistent
             }
+            if (curr.left != null) {
+                anchor(i, curr.left, columns[i] - 1);
+            } else {
+                anchor(i, rows.get(i), 0);
+            }
         }
         width--;//Adjust width of image
+        dirty.seamRemoved(columns, width); //Pixels that were next to the seam need new energy
     }
 
     /**
@@ -144,6 +257,7 @@ public class Image {
      * @param seam Sequence of pixels
      */
     public void addSeam(List<Pixel> seam) {
+        int[] columns = columnsOf(seam);
         for (int i=0;i<height;i++){ //Iterate through image rows
             Pixel curr = seam.get(i); //Current pixel of seam
             if (curr.right!=null){ //If right of current exists
@@ -154,103 +268,48 @@ public class Image {
             }else{ //If current pixel has no neighbors
                 rows.set(i,curr);//Set i to current pixel
             }
+            anchor(i, curr, columns[i]);
         }
         width++;//Adjust width of image
+        dirty.seamAdded(columns, width); //Pixels now next to the seam need new energy
     }
 
     /**
      * Find the seam which maximizes total value extracted from the given pixel
      * @param valueGetter Calculates value of pixel energy
+     * @param cumulative whether values add up along the seam or the best neighbour is picked row by row
      * @return The seam with the maximum total value
      */
-    private List<Pixel> getSeamMaximizing(Function<Pixel, Double> valueGetter) {
-        List<List<Pixel>> maximizedPixels = new ArrayList<>(); //Stores best pixels
-        List<List<Integer>> direction = new ArrayList<>(); //Stores the direction of movement
-        List<Pixel> ret = new ArrayList<>();
-        Pixel curr = rows.get(0);
-
-        calculateEnergy(); //Calculate energy
-
-        //init for first row
-        if (height == 1){
-            Pixel best = curr;
-            double max = valueGetter.apply(curr);
-            curr = curr.right;
-            for (int j=1;j<width;j++){
-                if (valueGetter.apply(curr) > max){
-                    max = valueGetter.apply(curr);
-                    best = curr;
-                }
-                curr = curr.right;
-            }
-            ret.add(best);
-            return ret;
-        }
-        for (int j=0;j<width;j++){
-            maximizedPixels.add(new ArrayList<>());
-            direction.add(new ArrayList<>());
-        }
+    private Seam getSeamMaximizing(ToDoubleFunction<Pixel> valueGetter, boolean cumulative) {
+        updateEnergy(); //Calculate energy of the pixels changed since the last seam
+        fillGrid(); //Any range of any row can then be read without walking to it
 
-
-        //Calculate for future rows
-        for (int i=1;i<height;i++){ //iterate through image rows
-            Pixel above = rows.get(i-1);//Above pixel
-            curr = rows.get(i); //Current pixel
-            for (int j=0;j<width;j++){ //Iterate through row
-                //Calculate
-                int dir = 0;
-                double max = valueGetter.apply(above);
-                if (j>0&&valueGetter.apply(above.left)>max) {
-                    max = valueGetter.apply(above.left);
-                    dir = -1;
-                }
-                if (j<width-1&&valueGetter.apply(above.right)>max){
-                    max = valueGetter.apply(above.right);
-                    dir = 1;
-                }
-                if (dir < 0){
-                    maximizedPixels.get(i).add(above.left);
-                    curr.energy = Math.abs(valueGetter.apply(curr) + valueGetter.apply(above.left));
-                }else if (dir > 0){
-                    maximizedPixels.get(i).add(above.right);
-                    curr.energy = Math.abs(valueGetter.apply(curr) + valueGetter.apply(above.right));
-                }else{
-                    maximizedPixels.get(i).add(above);
-                    curr.energy = Math.abs(valueGetter.apply(curr) + valueGetter.apply(above));
-                }
-                direction.get(i).add(j+dir);
-
-                curr=curr.right;
-                above=above.right;
+        int[] columns = solver.findSeam(width, height, (row, from, to, values) -> {
+            for (int j = from; j < to; j++) { //Iterate through row
+                values[j] = valueGetter.applyAsDouble(grid[row * width + j]);
             }
-        }
-
-
-        //Find max seam in last row
-        curr = rows.get(height-1); //Current pixel in last row
-        Pixel best = curr;
-        int seamPos = 0;
-        double max = valueGetter.apply(maximizedPixels.get(height-1).getFirst());
-        curr=curr.right;
+        }, cumulative);
 
-        for (int j=1;j<width;j++){
-            if (valueGetter.apply(maximizedPixels.get(height-1).get(j)) > max){
-                best = curr;
-                seamPos = j;
-                max = valueGetter.apply(maximizedPixels.get(height-1).get(j));
-            }
-            curr = curr.right;
+        Pixel[] ret = new Pixel[height];
+        for (int i = 0; i < height; i++) { //Look up the pixel of the seam in every row
+            ret[i] = grid[i * width + columns[i]];
         }
-        ret.addFirst(best);
-
+        return new Seam(ret, columns);
+    }
 
-        //Find the actual seam
-        for (int i=height-1;i>=1;i--){
-            seamPos = direction.get(i).get(seamPos);
-            ret.addFirst(maximizedPixels.get(i).get(seamPos));
+    /**
+     * Put every pixel in the grid, one walk along every row
+     */
+    private void fillGrid() {
+        if (grid.length < width * height) {
+            grid = new Pixel[width * height];
+        }
+        int index = 0;
+        for (int i = 0; i < height; i++) {
+            for (Pixel pixel = rows.get(i); pixel != null; pixel = pixel.right) {
+                grid[index++] = pixel;
+            }
         }
-
-        return ret;
     }
 
     /**
@@ -258,14 +317,14 @@ public class Image {
      * @return Greenest seam
      */
     public List<Pixel> getGreenestSeam() {
-        return getSeamMaximizing(Pixel::getGreen); //Get greenest seam
+        return getSeamMaximizing(Pixel::getGreen, false); //Get greenest seam
         /*Or, since we haven't lectured on lambda syntax in Java, this can be
-        return getSeamMaximizing(new Function<Pixel, Double>() {
+        return getSeamMaximizing(new ToDoubleFunction<Pixel>() {
             @Override
-            public Double apply(Pixel pixel) {
+            public double applyAsDouble(Pixel pixel) {
                 return pixel.getGreen();
             }
-        });*/
+        }, false);*/
 
     }
 
@@ -277,15 +336,123 @@ public class Image {
         /*
         Maximizing negation of energy is the same as minimizing the energy.
          */
-        return getSeamMaximizing(pixel -> -pixel.energy); //Get seam with lowest-energy
+        return getSeamMaximizing(pixel -> -pixel.energy, true); //Get seam with lowest-energy
 
         /*Or, since we haven't lectured on lambda syntax in Java, this can be
-        return getSeamMaximizing(new Function<Pixel, Double>() {
+        return getSeamMaximizing(new ToDoubleFunction<Pixel>() {
             @Override
-            public Double apply(Pixel pixel) {
+            public double applyAsDouble(Pixel pixel) {
                 return -pixel.energy;
             }
-        });
+        }, true);
         */
     }
-}
\ No newline at end of file
+
+    /**
+     * Remove the given number of lowest energy seams without exporting in between
+     * @param count number of seams to remove
+     * @return Removed seams, in the order they were removed
+     */
+    public List<List<Pixel>> removeSeams(int count) {
+        if (count < 0 || count >= width) {
+            throw new IllegalArgumentException("Cannot remove " + count + " seams from width " + width);
+        }
+        List<List<Pixel>> removed = new ArrayList<>();
+        for (int k = 0; k < count; k++) {
+            List<Pixel> seam = getLowestEnergySeam();
+            removeSeam(seam);
+            removed.add(seam);
+        }
+        return removed;
+    }
+
+    /**
+     * Insert the given number of seams, duplicating the lowest energy seams of the image
+     * @param count number of seams to insert
+     * @return Inserted seams, in the order they were inserted
+     */
+    public List<List<Pixel>> insertSeams(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Cannot insert " + count + " seams");
+        }
+        List<List<Pixel>> inserted = new ArrayList<>();
+        while (inserted.size() < count) {
+            //Find distinct seams by carving them, then put them back
+            int round = Math.min(count - inserted.size(), Math.max(1, width - 1));
+            boolean carve = width > 1; //A single column can only be duplicated
+            int before = width;
+            int[] original = new int[before * height]; //Column before this round of every pixel still left
+            for (int i = 0; i < height; i++) {
+                for (int j = 0; j < before; j++) {
+                    original[i * before + j] = j;
+                }
+            }
+            List<List<Pixel>> found = new ArrayList<>();
+            List<int[]> foundColumns = new ArrayList<>(); //Column of every found seam before this round
+            for (int k = 0; k < round; k++) {
+                List<Pixel> seam = getLowestEnergySeam();
+                int[] columns = columnsOf(seam);
+                int[] originalColumns = new int[height];
+                for (int i = 0; i < height; i++) {
+                    int index = i * before + columns[i];
+                    originalColumns[i] = original[index];
+                    System.arraycopy(original, index + 1, original, index, width - columns[i] - 1);
+                }
+                if (carve) {
+                    removeSeam(seam);
+                }
+                found.add(seam);
+                foundColumns.add(originalColumns);
+            }
+            for (int k = found.size() - 1; carve && k >= 0; k--) {
+                addSeam(found.get(k));
+            }
+            //Duplicate every found seam next to the original pixels
+            for (int k = 0; k < found.size(); k++) {
+                Pixel[] copy = new Pixel[height];
+                int[] columns = new int[height];
+                for (int i = 0; i < height; i++) {
+                    Pixel pixel = found.get(k).get(i);
+                    Pixel duplicate = new Pixel(pixel.rgb);
+                    duplicate.left = pixel;
+                    duplicate.right = pixel.right;
+                    copy[i] = duplicate;
+                    int column = foundColumns.get(k)[i] + 1; //Right of the original pixel
+                    for (int m = 0; m < k; m++) { //Moved by the copies already inserted left of it
+                        if (foundColumns.get(m)[i] < foundColumns.get(k)[i]) {
+                            column++;
+                        }
+                    }
+                    columns[i] = column;
+                }
+                List<Pixel> seam = new Seam(copy, columns);
+                addSeam(seam);
+                inserted.add(seam);
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Seam found by the image, which keeps the column of every pixel so that edits do not have to count them
+     */
+    private static final class Seam extends AbstractList<Pixel> implements RandomAccess {
+        private final Pixel[] pixels;
+        private final int[] columns; //Column of every pixel in the image the seam was found in
+
+        Seam(Pixel[] pixels, int[] columns) {
+            this.pixels = pixels;
+            this.columns = columns;
+        }
+
+        @Override
+        public Pixel get(int index) {
+            return pixels[index];
+        }
+
+        @Override
+        public int size() {
+            return pixels.length;
+        }
+    }
+}
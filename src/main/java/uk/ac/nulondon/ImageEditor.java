@@ -2,38 +2,423 @@ package uk.ac.nulondon;
 
 
 import javax.imageio.ImageIO;
-import javax.xml.stream.events.Comment;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.List;
 
 /*APPLICATION SERVICE LAYER*/
 
-public class ImageEditor {
-    private Stack<Command> undoStack = new Stack<>();
+public class ImageEditor implements AutoCloseable {
+    private static final int DEFAULT_HISTORY_DEPTH = 1000;
+    private static final long DEFAULT_HISTORY_BYTES = 64L * 1024 * 1024;
+    private static final int SEAM_CACHE_SIZE = 32;
+    //Tags of the commands in a snapshot
+    private static final int HIGHLIGHT_GREEN = 0;
+    private static final int HIGHLIGHT_LOWEST_ENERGY = 1;
+    private static final int REMOVE_HIGHLIGHT = 2;
+    private static final int RESIZE = 3;
 
-    private Image image;
+    /*
+    Commands only keep the column of their seams and the packed colors of the pixels they replaced,
+    so the history stays small. The oldest commands are dropped once it gets too long or too big.
+     */
+    private final Deque<Done> undoStack = new ArrayDeque<>();
+    private int historyDepth = DEFAULT_HISTORY_DEPTH;
+    private long historyBytes = DEFAULT_HISTORY_BYTES;
+    private long usedHistoryBytes = 0;
+
+    private PackedImage image;
+    private boolean imageShared = false; //Read by a resize preview, so commands have to change a copy of it
+    private volatile Metrics metrics = Metrics.disabled();
+    private volatile EnergyCache energyCache; //Null to not cache energy across images
+    private volatile int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private int[] highlightedSeam = null;
+
+    /*
+    Every command gives the image a new version and undoing it goes back to the version it started from,
+    so a seam found for a version is still the right one whenever the image comes back to it.
+    Energy does not need caching, the image only recalculates it next to the pixels that changed.
+     */
+    private long version = 0;
+    private long nextVersion = 1;
+    private final Map<SeamKey, int[]> seamCache = new LinkedHashMap<>(SEAM_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SeamKey, int[]> eldest) {
+            return size() > SEAM_CACHE_SIZE; //Least recently used first
+        }
+    };
+    private int seamSearches = 0;
 
-    private List<Pixel> highlightedSeam = null;
+    private final PreviewWriter previews = new PreviewWriter(this::snapshot); //Exports in the background
+    private final Path previewDirectory;
+    private ResizePreview resizePreview; //Progressive previews of a resize, for the current version of the image
+    private long resizePreviewVersion = -1;
+
+    /**
+     * Editor writing its previews to the target directory
+     */
+    public ImageEditor() {
+        this(Paths.get("target"));
+    }
+
+    /**
+     * @param previewDirectory existing directory the previews are written to, e.g. one per editing session
+     */
+    public ImageEditor(Path previewDirectory) {
+        this.previewDirectory = previewDirectory;
+    }
 
     public void load(String filePath) throws IOException {
-        File originalFile = new File(filePath);
-        BufferedImage img = ImageIO.read(originalFile);
-        image = new Image(img);
+        Metrics measured = metrics;
+        Metrics.Sample sample = measured.start(Metrics.Operation.DECODE);
+        PackedImage loaded = PackedImage.read(new File(filePath)); //In strips when too big to decode whole
+        sample.stop();
+        loaded.setMetrics(measured);
+        loaded.setEnergyCache(energyCache);
+        loaded.setParallelism(parallelism);
+        synchronized (this) {
+            image = loaded;
+            imageShared = false;
+            version = nextVersion++;
+            seamCache.clear();
+        }
+    }
+
+    /**
+     * Write the image and its undo history to a snapshot file, to carry on editing later
+     * with {@link #loadSnapshot(String)}. A full snapshot also holds the energy of every pixel,
+     * a compact one is deflated and leaves the energy out to be calculated again.
+     * History older than a command from outside this editor is not written.
+     *
+     * @param filePath Where the snapshot is written
+     * @param compact whether to make the file small rather than quick to write and resume from
+     * @throws IOException
+     */
+    public synchronized void saveSnapshot(String filePath, boolean compact) throws IOException {
+        List<Command> history = new ArrayList<>(); //Newest first, as on the stack
+        for (Done done : undoStack) {
+            if (!(done.command() instanceof highlightCommand || done.command() instanceof removeHighlightCommand
+                    || done.command() instanceof resizeCommand)) {
+                break; //Cannot be written, and nothing older can be undone without it
+            }
+            history.add(done.command());
+        }
+        try (SnapshotOutput out = SnapshotOutput.create(Paths.get(filePath), compact)) {
+            image.writeSnapshot(out, !compact);
+            out.putSeam(highlightedSeam);
+            out.putInt(history.size());
+            for (Command command : history) { //Newest first, so that sizes can be checked from the image back
+                writeCommand(out, command);
+            }
+        }
+    }
+
+    /**
+     * Replace the image and the undo history with the ones in a snapshot file
+     *
+     * @param filePath snapshot written by {@link #saveSnapshot(String, boolean)}
+     * @throws IOException
+     */
+    public void loadSnapshot(String filePath) throws IOException {
+        Metrics measured = metrics;
+        Metrics.Sample sample = measured.start(Metrics.Operation.DECODE);
+        try (SnapshotInput in = SnapshotInput.open(Paths.get(filePath))) {
+            PackedImage loaded = PackedImage.readSnapshot(in);
+            int[] highlighted = in.getSeam(loaded.getHeight(), loaded.getWidth());
+            int count = in.getInt();
+            List<Command> history = new ArrayList<>(); //Newest first
+            int[] size = {loaded.getWidth(), loaded.getHeight()};
+            for (int i = 0; i < count; i++) {
+                history.add(readCommand(in, size));
+            }
+            Collections.reverse(history);
+            sample.stop();
+            loaded.setMetrics(measured);
+            loaded.setEnergyCache(energyCache);
+            loaded.setParallelism(parallelism);
+            synchronized (this) {
+                image = loaded;
+                imageShared = false;
+                highlightedSeam = highlighted;
+                undoStack.clear();
+                usedHistoryBytes = 0;
+                for (Command command : history) { //Every state in the history gets a new version
+                    undoStack.push(new Done(command, nextVersion++));
+                    usedHistoryBytes += command.bytes();
+                }
+                version = nextVersion++;
+                seamCache.clear();
+                trimHistory();
+            }
+        }
+    }
+
+    /**
+     * Write a command with what it needs for undoing it
+     */
+    private static void writeCommand(SnapshotOutput out, Command command) throws IOException {
+        if (command instanceof highlightCommand highlight) {
+            out.putByte(highlight instanceof highlightGreenCommand ? HIGHLIGHT_GREEN : HIGHLIGHT_LOWEST_ENERGY);
+            out.putSeam(highlight.seam);
+            out.putArray(highlight.originalValues);
+        } else if (command instanceof removeHighlightCommand remove) {
+            out.putByte(REMOVE_HIGHLIGHT);
+            out.putSeam(remove.removedSeam);
+            out.putArray(remove.removedValues);
+        } else {
+            resizeCommand resize = (resizeCommand) command;
+            out.putByte(RESIZE);
+            out.putInt(resize.targetWidth);
+            out.putInt(resize.targetHeight);
+            out.putInt(resize.edits.size());
+            for (PackedImage.Edit edit : resize.edits.reversed()) { //Newest first, as the commands
+                out.putByte(edit.orientation().ordinal());
+                out.putSeam(edit.seam());
+                out.putArray(edit.removed());
+            }
+        }
     }
 
     /**
-     * Save the image
+     * Read a command written by {@link #writeCommand(SnapshotOutput, Command)}, ready to be undone.
+     * Every seam has to fit the size of the image the command left, so a corrupt file fails before
+     * anything larger than the image is allocated.
+     * @param size width and height of the image after the command, changed to the size before it
+     */
+    private Command readCommand(SnapshotInput in, int[] size) throws IOException {
+        int tag = in.getByte();
+        switch (tag) {
+            case HIGHLIGHT_GREEN, HIGHLIGHT_LOWEST_ENERGY -> {
+                highlightCommand highlight = tag == HIGHLIGHT_GREEN
+                        ? new highlightGreenCommand() : new highlightLowestEnergySeamCommand();
+                highlight.seam = in.getSeam(size[1], size[0]);
+                highlight.originalValues = in.getArray(size[1]);
+                return highlight;
+            }
+            case REMOVE_HIGHLIGHT -> {
+                removeHighlightCommand remove = new removeHighlightCommand();
+                remove.removedSeam = in.getSeam(size[1], size[0] + 1);
+                remove.removedValues = in.getArray(size[1]);
+                if (remove.removedSeam != null) {
+                    size[0]++;
+                }
+                return remove;
+            }
+            case RESIZE -> {
+                resizeCommand resize = new resizeCommand(in.getInt(), in.getInt());
+                int count = in.getInt();
+                List<PackedImage.Edit> edits = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    int orientation = in.getByte();
+                    if (orientation < 0 || orientation >= Orientation.values().length) {
+                        throw new IOException("Corrupt snapshot: orientation " + orientation);
+                    }
+                    //A removed seam came out of lines one longer than the image the command left
+                    int along = orientation == Orientation.VERTICAL.ordinal() ? 0 : 1;
+                    int[] seam = in.getSeam(size[1 - along], size[along] + 1);
+                    int[] removed = in.getArray(size[1 - along]);
+                    if (seam == null) {
+                        throw new IOException("Corrupt snapshot: resize without a seam");
+                    }
+                    size[along] += removed == null ? -1 : 1;
+                    if (size[along] < 1) {
+                        throw new IOException("Corrupt snapshot: resize from an empty image");
+                    }
+                    edits.add(new PackedImage.Edit(Orientation.values()[orientation], seam, removed));
+                }
+                resize.edits = edits.reversed();
+                return resize;
+            }
+            default -> throw new IOException("Corrupt snapshot: command " + tag);
+        }
+    }
+
+    /**
+     * Save the image, waiting until it is written
      *
      * @param filePath Where image is saved
      * @throws IOException
      */
     public void save(String filePath) throws IOException {
-        BufferedImage img = image.toBufferedImage();
+        BufferedImage img = snapshot();
+        Metrics.Sample sample = metrics.start(Metrics.Operation.ENCODE);
         ImageIO.write(img, "png", new File(filePath));
+        sample.stop();
+    }
+
+    /**
+     * Measure loading, saving and every operation on the image, from the next image loaded on
+     *
+     * @param metrics where the measurements go, {@link Metrics#disabled()} by default
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Share the energy and first seams of the images loaded from now on with other editors,
+     * so that loading the same image again skips calculating them
+     *
+     * @param cache e.g. {@link EnergyCache#shared()}, or null to not cache anything
+     */
+    public void setEnergyCache(EnergyCache cache) {
+        energyCache = cache;
+    }
+
+    /**
+     * Set how many threads calculate the energy and seams of the images loaded from now on,
+     * every available processor by default
+     *
+     * @param threads number of threads, 1 to calculate on the thread running the command
+     */
+    public void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + threads);
+        }
+        parallelism = threads;
+    }
+
+    /**
+     * @return Number of threads calculating the energy and seams of the images loaded from now on
+     */
+    int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Export the image in the background once the current command is done.
+     * Previews requested before the previous one was written replace it.
+     *
+     * @param filePath Where image is saved
+     */
+    public void preview(String filePath) {
+        previews.request(filePath);
+    }
+
+    /**
+     * Copy of the current image, taken while no command is running
+     */
+    private synchronized BufferedImage snapshot() {
+        return image.toBufferedImage();
+    }
+
+    /**
+     * Wait until the requested previews are written
+     */
+    public void flush() {
+        previews.flush();
+    }
+
+    /**
+     * Write the pending preview and stop exporting in the background
+     */
+    @Override
+    public void close() {
+        cancelResizePreview();
+        previews.close();
+    }
+
+    /**
+     * Start writing previews of a resize, first a rough one and then better ones, each moved into place
+     * over the last one. The rough one is carved within milliseconds, but encoding a PNG of the full size takes
+     * longer, so it is written a few hundred milliseconds after the request on large images.
+     * Asking for another size stops the previews of the size asked for before.
+     * Resizing to the same size afterwards takes the exact preview if it is finished.
+     *
+     * @param targetWidth width of the resized image
+     * @param targetHeight height of the resized image
+     */
+    public void previewResize(int targetWidth, int targetHeight) {
+        ResizePreview preview;
+        PackedImage source;
+        long sourceVersion;
+        synchronized (this) {
+            image.checkTargetSize(targetWidth, targetHeight);
+            preview = resizePreviewVersion == version ? resizePreview : null;
+            source = image;
+            sourceVersion = version;
+            if (preview == null) {
+                imageShared = true; //Commands change a copy from now on, so the preview can read it without the lock
+            }
+        }
+        if (preview == null) { //Image changed since the last one
+            Path file = previewDirectory.resolve("resizePreview.png");
+            //Scaling the image down for the first preview takes a while on large images, so not under the lock
+            ResizePreview created = new ResizePreview(source, (stage, img) -> {
+                try {
+                    writeAtomically(img, file);
+                } catch (IOException e) {
+                    System.out.println("Could not write preview " + file + ": " + e.getMessage());
+                }
+            });
+            ResizePreview replaced;
+            synchronized (this) {
+                if (version != sourceVersion) { //A command ran meanwhile, so the preview is already out of date
+                    replaced = created;
+                } else if (resizePreview != null && resizePreviewVersion == sourceVersion) { //Created meanwhile
+                    replaced = created;
+                    preview = resizePreview;
+                } else {
+                    replaced = resizePreview;
+                    resizePreview = created;
+                    resizePreviewVersion = sourceVersion;
+                    preview = created;
+                }
+            }
+            if (replaced != null) {
+                replaced.close();
+            }
+            if (preview == null) {
+                return;
+            }
+        }
+        preview.request(targetWidth, targetHeight);
+    }
+
+    /**
+     * Write a PNG file next to the target and move it into place, so that the target is never half written
+     */
+    private static void writeAtomically(BufferedImage img, Path target) throws IOException {
+        Path partial = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            ImageIO.write(img, "png", partial.toFile());
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(partial); //Only left if writing or moving failed
+        }
+    }
+
+    /**
+     * Stop the previews of a resize
+     */
+    public synchronized void cancelResizePreview() {
+        if (resizePreview != null) {
+            resizePreview.close();
+            resizePreview = null;
+        }
+    }
+
+    /**
+     * Limit how much undo history is kept. The most recent command is always kept.
+     *
+     * @param depth maximum number of commands
+     * @param bytes maximum memory used by the commands
+     */
+    public synchronized void setHistoryLimit(int depth, long bytes) {
+        if (depth < 1 || bytes < 0) {
+            throw new IllegalArgumentException("History must keep at least one command");
+        }
+        historyDepth = depth;
+        historyBytes = bytes;
+        trimHistory();
     }
 
     /**
@@ -43,7 +428,7 @@ public class ImageEditor {
      */
     public void highlightGreenest() throws IOException {
         executeCommand(new highlightGreenCommand()); //Execute command to highlight green
-        save("target/highlightedGreen.png");//Export image
+        preview(previewDirectory.resolve("highlightedGreen.png").toString());//Export image in the background
     }
 
     /**
@@ -53,7 +438,7 @@ public class ImageEditor {
      */
     public void removeHighlighted() throws IOException {
         executeCommand(new removeHighlightCommand()); //Execute command to remove highlight
-        save("target/removedSeam.png"); //Export image
+        preview(previewDirectory.resolve("removedSeam.png").toString()); //Export image in the background
     }
 
     /**
@@ -62,10 +447,18 @@ public class ImageEditor {
      * @throws IOException
      */
     public void undo() throws IOException {
-        if (!undoStack.isEmpty()) {//If the stack is not empty
-            Command command = undoStack.pop(); //Pop action
-            command.undo(); //Undo command
-            save("target/undidSeam.png");//Export image
+        Done done;
+        synchronized (this) {
+            done = undoStack.poll(); //Pop action
+            if (done != null) {//If the stack is not empty
+                ownImage();
+                usedHistoryBytes -= done.command().bytes();
+                done.command().undo(); //Undo command
+                version = done.version(); //Back to the image the command started from
+            }
+        }
+        if (done != null) {
+            preview(previewDirectory.resolve("undidSeam.png").toString());//Export image in the background
         } else {//If stack is empty
             System.out.println("Nothing to undo"); //Message
         }
@@ -77,9 +470,32 @@ public class ImageEditor {
      * @param command given
      * @throws IOException
      */
-    public void executeCommand(Command command) throws IOException {
+    public synchronized void executeCommand(Command command) throws IOException {
+        ownImage();
         command.execute();//Executes given command
-        undoStack.push(command);//push action
+        undoStack.push(new Done(command, version));//push action
+        version = nextVersion++;
+        usedHistoryBytes += command.bytes();
+        trimHistory();
+    }
+
+    /**
+     * Copy the image if a resize preview reads it, so that the preview never sees it change
+     */
+    private void ownImage() {
+        if (imageShared) {
+            image = new PackedImage(image);
+            imageShared = false;
+        }
+    }
+
+    /**
+     * Drop the oldest commands until the history fits its limits
+     */
+    private void trimHistory() {
+        while (undoStack.size() > 1 && (undoStack.size() > historyDepth || usedHistoryBytes > historyBytes)) {
+            usedHistoryBytes -= undoStack.removeLast().command().bytes();
+        }
     }
 
     /**
@@ -89,31 +505,161 @@ public class ImageEditor {
      */
     public void highlightLowestEnergySeam() throws IOException {
         executeCommand(new highlightLowestEnergySeamCommand()); //Execute command to highlight lowest energy seam
-        save("target/highlightLowestEnergy.png");//Export image
+        preview(previewDirectory.resolve("highlightLowestEnergy.png").toString());//Export image in the background
+    }
+
+    /**
+     * Resize the image to the given width, removing or inserting seams in one command
+     *
+     * @param targetWidth width of the resized image
+     * @throws IOException
+     */
+    public void resizeToWidth(int targetWidth) throws IOException {
+        resize(targetWidth, getHeight());
+    }
+
+    /**
+     * Resize the image to the given size, removing or inserting vertical and horizontal seams in one command
+     *
+     * @param targetWidth width of the resized image
+     * @param targetHeight height of the resized image
+     * @throws IllegalArgumentException if the image cannot be retargeted to the size
+     * @throws IOException
+     */
+    public void resize(int targetWidth, int targetHeight) throws IOException {
+        synchronized (this) {
+            image.checkTargetSize(targetWidth, targetHeight);
+            //The exact preview of this very version of the image is the resize itself, if it is finished
+            ResizePreview.Resized previewed = resizePreview != null && resizePreviewVersion == version
+                    ? resizePreview.take(targetWidth, targetHeight) : null;
+            cancelResizePreview(); //Not needed anymore, the exact resize is done right away
+            if (previewed != null) {
+                imageShared = false; //Replaced by the previewed image rather than changed, so no need to copy it
+            }
+            executeCommand(new resizeCommand(targetWidth, targetHeight, previewed)); //Carve all the seams at once
+        }
+        preview(previewDirectory.resolve("resized.png").toString()); //Export only the final image in the background
+    }
+
+    /**
+     * @return Width of the current image
+     */
+    public synchronized int getWidth() {
+        return image.getWidth();
+    }
+
+    /**
+     * @return Height of the current image
+     */
+    public synchronized int getHeight() {
+        return image.getHeight();
+    }
+
+    /**
+     * Best seam of the current image, only searched for once per version of the image
+     *
+     * @param criterion what the seam is made of
+     * @return column of the seam in every row, shared with the cache so never to be changed
+     */
+    private int[] findSeam(Criterion criterion) {
+        return seamCache.computeIfAbsent(new SeamKey(version, criterion), key -> {
+            seamSearches++;
+            return criterion == Criterion.GREENEST ? image.getGreenestSeam() : image.getLowestEnergySeam();
+        });
+    }
+
+    /**
+     * @return Number of seams actually searched for rather than found in the cache
+     */
+    synchronized int seamSearches() {
+        return seamSearches;
+    }
+
+    /**
+     * What a cached seam was searched for
+     */
+    private enum Criterion {
+        GREENEST, LOWEST_ENERGY
+    }
+
+    /**
+     * Seam searched for on a version of the image
+     */
+    private record SeamKey(long version, Criterion criterion) {
+    }
+
+    /**
+     * Command in the history, with the version of the image before it was executed
+     */
+    private record Done(Command command, long version) {
     }
 
     interface Command {
         void execute();
 
         void undo();
+
+        /**
+         * @return Memory kept by the command for undoing it
+         */
+        long bytes();
     }
 
     /**
-     * Command for highlighting the greenest seam
+     * Memory used by the given seam arrays
      */
-    private class highlightGreenCommand implements Command {
-        private List<Pixel> originalSeam;
+    private static long bytesOf(int[]... arrays) {
+        long bytes = 0;
+        for (int[] array : arrays) {
+            bytes += array == null ? 0 : (long) array.length * Integer.BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * Command for highlighting a seam, keeping the colors it covered
+     */
+    private abstract class highlightCommand implements Command {
+        private final Color color;
+        private int[] seam;
+        private int[] originalValues;
+
+        highlightCommand(Color color) {
+            this.color = color;
+        }
+
+        abstract int[] findSeam();
 
         @Override
         public void execute() {
-            originalSeam = image.getGreenestSeam();
-            highlightedSeam = image.highlightSeam(originalSeam, new Color(0, 0, 255)); //Make originalSeam to highlight green at the greenest seam
+            seam = findSeam();
+            originalValues = image.highlightSeam(seam, color); //Keep the colors under the highlight
+            highlightedSeam = seam;
         }
 
         @Override
         public void undo() {
-            image.removeSeam(highlightedSeam);
-            image.addSeam(originalSeam);
+            image.setSeam(seam, originalValues); //Put the original colors back
+            highlightedSeam = null;
+        }
+
+        @Override
+        public long bytes() {
+            return bytesOf(seam, originalValues);
+        }
+    }
+
+    /**
+     * Command for highlighting the greenest seam
+     */
+    private class highlightGreenCommand extends highlightCommand {
+        highlightGreenCommand() {
+            super(new Color(0, 0, 255));
+        }
+
+        @Override
+        int[] findSeam() {
+            return ImageEditor.this.findSeam(Criterion.GREENEST);
         }
     }
 
@@ -121,13 +667,14 @@ public class ImageEditor {
      * Command for removing highlight
      */
     private class removeHighlightCommand implements Command {
-        private List<Pixel> removedSeam;
+        private int[] removedSeam;
+        private int[] removedValues;
 
         @Override
         public void execute() {
             if (highlightedSeam != null) { //If a highlighted seam exists
-                removedSeam = new ArrayList<>();// Create a copy for the seam that will be removed
-                image.removeSeam(highlightedSeam); //remove seam from image
+                removedSeam = highlightedSeam;
+                removedValues = image.removeSeam(removedSeam); //remove seam from image, keeping its colors
                 highlightedSeam = null; //highlightedSeam does not exist after removal
             } else {
                 System.out.println("No seam highlighted");
@@ -136,25 +683,77 @@ public class ImageEditor {
 
         @Override
         public void undo() {
-            image.addSeam(removedSeam); //Add the removed seam back
+            if (removedSeam != null) {
+                image.addSeam(removedSeam, removedValues); //Add the removed seam back
+                highlightedSeam = removedSeam; //It is still highlighted
+            }
+        }
+
+        @Override
+        public long bytes() {
+            return bytesOf(removedSeam, removedValues);
         }
     }
 
     /**
      * Command for highlighting the lowest energy seam
      */
-    private class highlightLowestEnergySeamCommand implements Command {
-        private List<Pixel> originalSeam;
+    private class highlightLowestEnergySeamCommand extends highlightCommand {
+        highlightLowestEnergySeamCommand() {
+            super(new Color(250, 0, 0));
+        }
+
+        @Override
+        int[] findSeam() {
+            return ImageEditor.this.findSeam(Criterion.LOWEST_ENERGY);
+        }
+    }
+
+    /**
+     * Command for resizing the image to a target size
+     */
+    private class resizeCommand implements Command {
+        private final int targetWidth;
+        private final int targetHeight;
+        private List<PackedImage.Edit> edits = List.of(); //Removed and inserted seams, in order
+        private ResizePreview.Resized previewed; //Resize already carved by the preview, only used once
+
+        resizeCommand(int targetWidth, int targetHeight) {
+            this(targetWidth, targetHeight, null);
+        }
+
+        resizeCommand(int targetWidth, int targetHeight, ResizePreview.Resized previewed) {
+            if (targetWidth < 1 || targetHeight < 1) {
+                throw new IllegalArgumentException("Size must be positive: " + targetWidth + "x" + targetHeight);
+            }
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+            this.previewed = previewed;
+        }
 
         @Override
         public void execute() {
-            originalSeam = image.getLowestEnergySeam();
-            highlightedSeam = image.highlightSeam(originalSeam, new Color(250, 0, 0));//Make the original seam equal to the new seam which highlights the lowest energy seam of image in the color red
+            if (previewed != null) { //Same pixels and seams as carving again
+                image = previewed.image();
+                edits = previewed.edits();
+                previewed = null;
+            } else {
+                edits = image.retarget(targetWidth, targetHeight); //Carve or duplicate the lowest energy seams
+            }
         }
 
         @Override
         public void undo() {
-            image.addSeam(originalSeam);
+            image.revert(edits); //Undo in reverse order
+        }
+
+        @Override
+        public long bytes() {
+            long bytes = 0;
+            for (PackedImage.Edit edit : edits) {
+                bytes += bytesOf(edit.seam(), edit.removed());
+            }
+            return bytes;
         }
     }
-}
\ No newline at end of file
+}
@@ -14,6 +14,7 @@ public class Main {
         System.out.println("Please enter a command");
         System.out.println("g - Remove the greenest seam");
         System.out.println("e - Remove the seam with the lowest energy");
+        System.out.println("w - Resize to a target width and height");
         System.out.println("u - Undo previous edit");
         System.out.println("q - Quit");
     }
@@ -50,6 +51,50 @@ public class Main {
         }
     }
 
+    private void resize(Scanner scan) throws IOException {
+        int targetWidth = readSize(scan, "width", editor.getWidth());
+        if (targetWidth < 1) {
+            return;
+        }
+        int targetHeight = readSize(scan, "height", editor.getHeight());
+        if (targetHeight < 1) {
+            return;
+        }
+        // show quick previews while waiting for confirmation, then carve or insert all the seams
+        editor.previewResize(targetWidth, targetHeight);
+        System.out.println("Resize to " + targetWidth + "x" + targetHeight
+                + ", previewed in target/resizePreview.png. Continue? (Y/N)");
+        if ("y".equalsIgnoreCase(scan.next())) {
+            editor.resize(targetWidth, targetHeight);
+        } else {
+            editor.cancelResizePreview();
+        }
+    }
+
+    /**
+     * Ask for a positive number of pixels, at most {@link PackedImage#MAX_GROWTH} times the current size
+     * @return the number, or 0 if it is not valid
+     */
+    private static int readSize(Scanner scan, String side, int current) {
+        System.out.println("Enter the target " + side);
+        if (!scan.hasNextInt()) {
+            System.out.println("That is not a valid " + side + ".");
+            scan.next();
+            return 0;
+        }
+        int size = scan.nextInt();
+        if (size < 1) {
+            System.out.println("That is not a valid " + side + ".");
+            return 0;
+        }
+        if (size > (long) current * PackedImage.MAX_GROWTH) {
+            System.out.println("The " + side + " can grow to at most " + PackedImage.MAX_GROWTH + " times "
+                    + current + ".");
+            return 0;
+        }
+        return size;
+    }
+
     private void run() throws IOException {
         //Scanner is closeable, so we put it into try-with-resources
         try (Scanner scan = new Scanner(System.in)) {
@@ -69,6 +114,7 @@ public class Main {
                     //Extract all the actions into methods besides the trivial ones
                     case "g" -> greenest(scan);
                     case "e" -> energy(scan);
+                    case "w" -> resize(scan);
                     case "u" -> undo(scan);
                     case "q" -> System.out.println("Thanks for playing.");
                     default -> System.out.println("That is not a valid option.");
@@ -76,6 +122,9 @@ public class Main {
             }
             // After the user exits, export the final image
             editor.save("target/newImg.png");
+        } finally {
+            // finish writing the last preview
+            editor.close();
         }
     }
 
@@ -83,6 +132,10 @@ public class Main {
     public static void main(String[] args) {
         /*Keep main method short. Only create a main class and execute
         the entry point. Also, you may handle specific exceptions here*/
+        if (args.length > 0) { //Options on the command line run without asking anything
+            BatchMain.main(args);
+            return;
+        }
         try {
             new Main().run();
         } catch (IOException e) {
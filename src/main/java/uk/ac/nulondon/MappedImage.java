@@ -0,0 +1,334 @@
+package uk.ac.nulondon;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Image kept in a memory-mapped scratch file rather than on the heap, for images larger than the memory
+ * of the machine. The ARGB values, the energy and the seam table directions are planes of the file,
+ * only a few rows are on the heap at once, and every pass goes through the rows in order.
+ * Finds and removes the same vertical seams as {@link PackedImage}.
+ * <p>
+ * Only vertical seams are supported, a horizontal seam would touch every row of the file for every column.
+ * Every row keeps the length it had when the file was read, so seams can be added back after being removed
+ * but the image never gets wider than it was read. Batch mode carves with it when run with {@code --storage mapped}.
+ */
+public final class MappedImage implements AutoCloseable {
+    private static final int STRIP_PIXELS = 4 * 1024 * 1024; //Pixels decoded at once when reading a file
+    private static final long CHUNK_BYTES = 1024L * 1024 * 1024; //Largest single mapping
+
+    private final FileChannel channel;
+    private final MappedPlane argb; //Row-major ARGB values
+    private final MappedPlane energy; //Energy of each pixel, same layout as argb
+    private final MappedPlane direction; //Step to the best pixel above every pixel, -1, 0 or 1
+    private final int stride; //Width of the image as read, rows never get longer than that
+    private final DirtyBands dirty; //Pixels whose energy is out of date
+    private EnergyFunction energyFunction = EnergyFunction.sobel();
+
+    private final int[] window; //ARGB values of the rows above, at and below the calculated row
+    private final short[] sums; //Channel sums of the window
+    private final double[] energyRow; //Energy calculated for the window, same layout
+    private final EnergyFunction.Row windowRow; //Middle row of the window, with the rows above and below it
+    private final int[] pixelRow; //Row of ARGB values being moved
+    private double[] previous; //Best value of a seam ending in every pixel of the row above
+    private double[] current;
+    private final double[] lastRow; //Value of the best pixel above every pixel of the last row
+    private final byte[] steps; //Directions of the current row
+
+    private int width;
+    private final int height;
+
+    private MappedImage(Path store, int width, int height, long chunkBytes) throws IOException {
+        this.width = width;
+        this.height = height;
+        stride = width;
+        //Scratch space only, nothing in the file is meant to outlive the image
+        channel = FileChannel.open(store, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        try {
+            long argbBytes = MappedPlane.size(height, stride, Integer.BYTES);
+            long energyBytes = MappedPlane.size(height, stride, Double.BYTES);
+            argb = new MappedPlane(channel, 0, height, stride, Integer.BYTES, chunkBytes);
+            energy = new MappedPlane(channel, argbBytes, height, stride, Double.BYTES, chunkBytes);
+            direction = new MappedPlane(channel, argbBytes + energyBytes, height, stride, 1, chunkBytes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        dirty = new DirtyBands(height);
+        window = new int[3 * stride];
+        sums = new short[window.length];
+        energyRow = new double[window.length];
+        windowRow = new EnergyFunction.Row(window, sums, energyRow, 0, stride, 2 * stride);
+        pixelRow = new int[stride];
+        previous = new double[stride];
+        current = new double[stride];
+        lastRow = new double[stride];
+        steps = new byte[stride];
+    }
+
+    /**
+     * Read an image file a strip of rows at a time straight into a new scratch file,
+     * the decoded image is never on the heap as a whole unless it fits easily, see {@link StripReader}
+     * @param file image file
+     * @param store scratch file, replaced if it exists and deleted when the image is closed
+     * @return mapped image
+     * @throws IOException if the file cannot be read or the scratch file cannot be mapped
+     */
+    public static MappedImage read(File file, Path store) throws IOException {
+        return read(file, store, STRIP_PIXELS, StripReader.wholeImagePixels(), CHUNK_BYTES);
+    }
+
+    /**
+     * @param stripPixels number of pixels decoded at once
+     * @param wholePixels largest image decoded whole
+     * @param chunkBytes largest single mapping of the scratch file
+     */
+    static MappedImage read(File file, Path store, int stripPixels, long wholePixels, long chunkBytes)
+            throws IOException {
+        try (StripReader reader = new StripReader(file, stripPixels, wholePixels)) {
+            MappedImage image = new MappedImage(store, reader.getWidth(), reader.getHeight(), chunkBytes);
+            try {
+                int[] strip = new int[reader.getStripRows() * image.stride];
+                reader.read((decoded, stripRow, firstRow, rows) -> {
+                    Rasters.read(decoded, stripRow, rows, strip, 0, image.stride);
+                    for (int r = 0; r < rows; r++) {
+                        image.argb.putInts(firstRow + r, 0, strip, r * image.stride, image.stride);
+                    }
+                });
+                return image;
+            } catch (IOException | RuntimeException e) {
+                image.close();
+                throw e;
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Change how the energy is calculated, everything is recalculated on the next seam search
+     * @param energyFunction new energy function
+     */
+    public void setEnergyFunction(EnergyFunction energyFunction) {
+        this.energyFunction = energyFunction;
+        dirty.markAll();
+    }
+
+    /**
+     * Copy the image to the heap, e.g. to save it once it has been carved small enough
+     * @return image with the current pixels
+     */
+    public BufferedImage toBufferedImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] data = Rasters.data(image);
+        for (int row = 0; row < height; row++) {
+            argb.getInts(row, 0, data, row * width, width);
+        }
+        return image;
+    }
+
+    /**
+     * Calculate the energy of every pixel, one row at a time
+     */
+    public void calculateEnergy() {
+        for (int row = 0; row < height; row++) {
+            calculateEnergy(row, 0, width - 1);
+        }
+        dirty.clearAll();
+    }
+
+    /**
+     * Recalculate energy only for the pixels next to seams edited since the last calculation
+     */
+    public void updateEnergy() {
+        if (dirty.isAllDirty()) {
+            calculateEnergy();
+            return;
+        }
+        for (int row = 0; row < height; row++) {
+            if (dirty.isDirty(row)) {
+                calculateEnergy(row, dirty.from(row), dirty.to(row));
+                dirty.clear(row);
+            }
+        }
+    }
+
+    /**
+     * Calculate energy for a range of pixels in a row, reading the pixels around them into the window
+     * @param row row of the pixels
+     * @param from first column to calculate
+     * @param to last column to calculate
+     */
+    private void calculateEnergy(int row, int from, int to) {
+        int first = Math.max(0, from - 1);
+        int length = Math.min(width - 1, to + 1) - first + 1;
+        if (row == 0 || row == height - 1) { //Edge rows use the brightness of the pixel
+            load(row, stride, first, length);
+            for (int col = from; col <= to; col++) {
+                energyRow[stride + col] = ScalarEnergy.brightness(sums, stride + col);
+            }
+        } else {
+            load(row - 1, 0, first, length);
+            load(row, stride, first, length);
+            load(row + 1, 2 * stride, first, length);
+            if (from == 0) { //Edge columns use the brightness of the pixel too
+                energyRow[stride] = ScalarEnergy.brightness(sums, stride);
+            }
+            if (to == width - 1) {
+                energyRow[stride + to] = ScalarEnergy.brightness(sums, stride + to);
+            }
+            energyFunction.calculateRow(windowRow, Math.max(1, from), Math.min(to + 1, width - 1));
+        }
+        energy.putDoubles(row, from, energyRow, stride + from, to - from + 1);
+    }
+
+    /**
+     * Read a range of a row into the window, at the same columns
+     */
+    private void load(int row, int offset, int first, int length) {
+        argb.getInts(row, first, window, offset + first, length);
+        for (int i = offset + first; i < offset + first + length; i++) {
+            sums[i] = PackedImage.channelSum(window[i]);
+        }
+    }
+
+    /**
+     * Find the vertical seam with the lowest total energy, the same one {@link PackedImage} finds.
+     * The table keeps two rows of totals on the heap and writes the directions of every row to the file.
+     * @return column of the seam in every row
+     */
+    public int[] getLowestEnergySeam() {
+        updateEnergy();
+        int[] seam = new int[height];
+        energy.getDoubles(0, 0, previous, 0, width);
+        for (int col = 0; col < width; col++) {
+            previous[col] = -previous[col];
+        }
+
+        //Only one row, pick its best pixel
+        if (height == 1) {
+            int best = 0;
+            for (int col = 1; col < width; col++) {
+                if (previous[col] > previous[best]) {
+                    best = col;
+                }
+            }
+            seam[0] = best;
+            return seam;
+        }
+
+        for (int row = 1; row < height; row++) {
+            energy.getDoubles(row, 0, current, 0, width);
+            for (int col = 0; col < width; col++) {
+                int best = col;
+                double max = previous[col];
+                if (col > 0 && previous[col - 1] > max) {
+                    max = previous[col - 1];
+                    best = col - 1;
+                }
+                if (col < width - 1 && previous[col + 1] > max) {
+                    max = previous[col + 1];
+                    best = col + 1;
+                }
+                steps[col] = (byte) (best - col);
+                lastRow[col] = max;
+                current[col] = max - current[col];
+            }
+            direction.putBytes(row, 0, steps, 0, width);
+            double[] swap = previous; //Current row becomes the row above
+            previous = current;
+            current = swap;
+        }
+
+        //Find max seam in last row
+        int seamPos = 0;
+        for (int col = 1; col < width; col++) {
+            if (lastRow[col] > lastRow[seamPos]) {
+                seamPos = col;
+            }
+        }
+        seam[height - 1] = seamPos;
+
+        //Follow the directions up the same way SeamSolver does, one byte per row
+        for (int row = height - 1; row >= 1; row--) {
+            seamPos += direction.getByte(row, seamPos);
+            seam[row - 1] = seamPos + direction.getByte(row, seamPos);
+        }
+        return seam;
+    }
+
+    /**
+     * Removes provided seam, shifting the rest of every row to the left
+     * @param seam column of the seam in every row
+     * @return Values of the removed pixels, to be passed back to {@link #addSeam(int[], int[])}
+     */
+    public int[] removeSeam(int[] seam) {
+        int[] removed = new int[height];
+        for (int row = 0; row < height; row++) {
+            int col = seam[row];
+            argb.getInts(row, col, pixelRow, 0, width - col);
+            removed[row] = pixelRow[0];
+            argb.putInts(row, col, pixelRow, 1, width - col - 1);
+            energy.getDoubles(row, col + 1, current, 0, width - col - 1);
+            energy.putDoubles(row, col, current, 0, width - col - 1);
+        }
+        width--;
+        dirty.seamRemoved(seam, width);
+        return removed;
+    }
+
+    /**
+     * Add the provided seam back, shifting the rest of every row to the right.
+     * Rows never get longer than they were when the image was read.
+     * @param seam column of the seam in every row
+     * @param values ARGB values of the seam pixels
+     */
+    public void addSeam(int[] seam, int[] values) {
+        if (width == stride) {
+            throw new IllegalStateException("Image is already " + stride + " pixels wide");
+        }
+        for (int row = 0; row < height; row++) {
+            int col = seam[row];
+            argb.getInts(row, col, pixelRow, 1, width - col);
+            pixelRow[0] = values[row];
+            argb.putInts(row, col, pixelRow, 0, width - col + 1);
+            energy.getDoubles(row, col, current, 0, width - col);
+            energy.putDoubles(row, col + 1, current, 0, width - col);
+        }
+        width++;
+        dirty.seamAdded(seam, width);
+    }
+
+    /**
+     * Remove the lowest energy seams until the image is narrow enough
+     * @param targetWidth width to carve down to
+     */
+    public void resizeToWidth(int targetWidth) {
+        if (targetWidth < 1 || targetWidth > width) {
+            throw new IllegalArgumentException("Cannot carve " + width + " pixels down to " + targetWidth);
+        }
+        while (width > targetWidth) {
+            removeSeam(getLowestEnergySeam());
+        }
+    }
+
+    /**
+     * Close and delete the scratch file, the mappings themselves are released once the image is collected
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,91 @@
+package uk.ac.nulondon;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plane of fixed size rows of ints, doubles or bytes mapped from a region of a file. A single mapping cannot
+ * go past 2GB, so rows are mapped in chunks of whole rows. Only whole row ranges are copied in and out,
+ * which keeps the accesses sequential for the page cache.
+ */
+final class MappedPlane {
+    private final int rowElements;
+    private final int rowsPerChunk;
+    private final MappedByteBuffer[] chunks;
+    private final IntBuffer[] ints; //Views of the chunks, only for planes of the matching type
+    private final DoubleBuffer[] doubles;
+
+    /**
+     * @param channel file opened for reading and writing, grown to fit the plane
+     * @param position start of the plane in the file
+     * @param rows number of rows
+     * @param rowElements number of elements in every row
+     * @param elementBytes size of an element, 1, 4 or 8 bytes
+     * @param chunkBytes largest mapping, at least one row
+     * @throws IOException if the file cannot be mapped
+     */
+    MappedPlane(FileChannel channel, long position, int rows, int rowElements, int elementBytes, long chunkBytes)
+            throws IOException {
+        this.rowElements = rowElements;
+        long rowBytes = (long) rowElements * elementBytes;
+        rowsPerChunk = (int) Math.max(1, Math.min(rows, Math.min(chunkBytes, Integer.MAX_VALUE) / rowBytes));
+        int count = (rows + rowsPerChunk - 1) / rowsPerChunk;
+        chunks = new MappedByteBuffer[count];
+        ints = elementBytes == Integer.BYTES ? new IntBuffer[count] : null;
+        doubles = elementBytes == Double.BYTES ? new DoubleBuffer[count] : null;
+        for (int chunk = 0; chunk < count; chunk++) {
+            int chunkRows = Math.min(rowsPerChunk, rows - chunk * rowsPerChunk);
+            chunks[chunk] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    position + chunk * rowsPerChunk * rowBytes, chunkRows * rowBytes);
+            chunks[chunk].order(ByteOrder.nativeOrder());
+            if (ints != null) {
+                ints[chunk] = chunks[chunk].asIntBuffer();
+            }
+            if (doubles != null) {
+                doubles[chunk] = chunks[chunk].asDoubleBuffer();
+            }
+        }
+    }
+
+    /**
+     * @return Number of bytes a plane takes in the file
+     */
+    static long size(int rows, int rowElements, int elementBytes) {
+        return (long) rows * rowElements * elementBytes;
+    }
+
+    /**
+     * Index of the element within its chunk
+     */
+    private int index(int row, int col) {
+        return (row % rowsPerChunk) * rowElements + col;
+    }
+
+    void getInts(int row, int col, int[] dst, int offset, int length) {
+        ints[row / rowsPerChunk].get(index(row, col), dst, offset, length);
+    }
+
+    void putInts(int row, int col, int[] src, int offset, int length) {
+        ints[row / rowsPerChunk].put(index(row, col), src, offset, length);
+    }
+
+    void getDoubles(int row, int col, double[] dst, int offset, int length) {
+        doubles[row / rowsPerChunk].get(index(row, col), dst, offset, length);
+    }
+
+    void putDoubles(int row, int col, double[] src, int offset, int length) {
+        doubles[row / rowsPerChunk].put(index(row, col), src, offset, length);
+    }
+
+    byte getByte(int row, int col) {
+        return chunks[row / rowsPerChunk].get(index(row, col));
+    }
+
+    void putBytes(int row, int col, byte[] src, int offset, int length) {
+        chunks[row / rowsPerChunk].put(index(row, col), src, offset, length);
+    }
+}
@@ -0,0 +1,293 @@
+package uk.ac.nulondon;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts, latencies and allocated bytes of the expensive operations on an image, safe to share between threads.
+ * Latencies go into histograms with one bucket per power of two nanoseconds. Allocated bytes are measured
+ * on the calling thread only, so work handed to other threads is not counted and they are an estimate.
+ * Every sample is also a JFR event while a flight recording is running.
+ * <p>
+ * {@link #disabled()} measures nothing, starting a sample only returns a shared object.
+ */
+public final class Metrics {
+    /**
+     * Operations which are measured
+     */
+    public enum Operation {
+        DECODE, ENERGY, SEAM_SEARCH, REMOVE_SEAM, ADD_SEAM, ENCODE
+    }
+
+    private static final Metrics DISABLED = new Metrics(null);
+    private static final int BUCKETS = Long.SIZE + 1; //Bucket b holds latencies below 2^b nanoseconds
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double NANOS_PER_MICRO = 1e3;
+    private static final int[] PERCENTILES = {50, 90, 99};
+    private static final double PERCENT = 100;
+
+    private final String name;
+    private final Stats[] stats = new Stats[Operation.values().length];
+
+    /**
+     * Metrics of one image or run
+     * @param name name shown in the exported metrics and events, e.g. the file name
+     */
+    public Metrics(String name) {
+        this.name = name;
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new Stats();
+        }
+    }
+
+    /**
+     * @return Metrics which measure nothing, the default of every image
+     */
+    public static Metrics disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return this != DISABLED;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Start measuring an operation
+     * @param operation operation about to run
+     * @return sample to stop once the operation is done
+     */
+    public Sample start(Operation operation) {
+        if (this == DISABLED) {
+            return Sample.NONE;
+        }
+        return new Sample(this, operation);
+    }
+
+    /**
+     * @return Number of times the operation ran
+     */
+    public long count(Operation operation) {
+        return stats[operation.ordinal()].count.sum();
+    }
+
+    /**
+     * @return Time spent in the operation, in nanoseconds
+     */
+    public long totalNanos(Operation operation) {
+        return stats[operation.ordinal()].nanos.sum();
+    }
+
+    /**
+     * @return Estimate of the bytes allocated by the operation
+     */
+    public long allocatedBytes(Operation operation) {
+        return stats[operation.ordinal()].bytes.sum();
+    }
+
+    /**
+     * @param operation measured operation
+     * @param percentile between 0 and 1, e.g. 0.99
+     * @return Upper bound of the histogram bucket holding the percentile, in nanoseconds, 0 if it never ran
+     */
+    public long percentileNanos(Operation operation, double percentile) {
+        Stats operationStats = stats[operation.ordinal()];
+        long count = operationStats.count.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS - 1; bucket++) {
+            seen += operationStats.histogram.get(bucket);
+            if (seen >= rank) {
+                return 1L << bucket;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return Every operation which ran, as a JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"name\":");
+        appendString(json, name);
+        json.append(",\"operations\":{");
+        boolean first = true;
+        for (Operation operation : Operation.values()) {
+            long count = count(operation);
+            if (count == 0) {
+                continue;
+            }
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            long nanos = totalNanos(operation);
+            json.append(String.format(Locale.ROOT, "\"%s\":{\"count\":%d,\"totalMillis\":%.3f,\"meanMicros\":%.3f",
+                    operation.name().toLowerCase(Locale.ROOT), count, nanos / NANOS_PER_MILLI,
+                    nanos / NANOS_PER_MICRO / count));
+            for (int percentile : PERCENTILES) {
+                json.append(String.format(Locale.ROOT, ",\"p%dMicros\":%.3f", percentile,
+                        percentileNanos(operation, percentile / PERCENT) / NANOS_PER_MICRO));
+            }
+            json.append(String.format(Locale.ROOT, ",\"maxMicros\":%.3f,\"allocatedBytes\":%d}",
+                    stats[operation.ordinal()].max.get() / NANOS_PER_MICRO, allocatedBytes(operation)));
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * @param metrics metrics of several images
+     * @return JSON array of the metrics
+     */
+    public static String toJson(Collection<Metrics> metrics) {
+        StringBuilder json = new StringBuilder("[");
+        for (Metrics each : metrics) {
+            if (json.length() > 1) {
+                json.append(",\n");
+            }
+            json.append(each.toJson());
+        }
+        return json.append("]\n").toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private void record(Operation operation, long nanos, long bytes) {
+        Stats operationStats = stats[operation.ordinal()];
+        operationStats.count.increment();
+        operationStats.nanos.add(nanos);
+        operationStats.bytes.add(bytes);
+        operationStats.max.accumulateAndGet(nanos, Math::max);
+        operationStats.histogram.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, -1 when the JVM cannot tell
+     */
+    private static long allocated() {
+        return Allocations.THREADS == null ? -1 : Allocations.THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Allocation counters of the JVM, only looked up once the first sample is taken
+     */
+    private static final class Allocations {
+        private static final com.sun.management.ThreadMXBean THREADS = counter();
+
+        private static com.sun.management.ThreadMXBean counter() {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                    && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Totals of one operation
+     */
+    private static final class Stats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    }
+
+    /**
+     * Measurement of a single run of an operation
+     */
+    public static final class Sample {
+        private static final Sample NONE = new Sample(null, null);
+
+        private final Metrics metrics;
+        private final Operation operation;
+        private final OperationEvent event;
+        private final long startNanos;
+        private final long startBytes;
+
+        private Sample(Metrics metrics, Operation operation) {
+            this.metrics = metrics;
+            this.operation = operation;
+            if (metrics == null) {
+                event = null;
+                startNanos = 0;
+                startBytes = 0;
+            } else {
+                event = new OperationEvent();
+                event.begin();
+                startBytes = allocated();
+                startNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Record the operation as done
+         */
+        public void stop() {
+            if (metrics == null) {
+                return;
+            }
+            long nanos = System.nanoTime() - startNanos;
+            long bytes = startBytes < 0 ? 0 : Math.max(0, allocated() - startBytes);
+            metrics.record(operation, nanos, bytes);
+            event.end();
+            if (event.shouldCommit()) {
+                event.image = metrics.name;
+                event.operation = operation.name();
+                event.allocatedBytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Flight recorder event of a single run of an operation
+     */
+    @Name("uk.ac.nulondon.Operation")
+    @Label("Seam Carving Operation")
+    @Category("Seam Carving")
+    static class OperationEvent extends Event {
+        @Label("Image")
+        String image;
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Allocated Bytes")
+        @DataAmount
+        long allocatedBytes;
+    }
+}
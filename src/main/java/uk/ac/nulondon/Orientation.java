@@ -0,0 +1,28 @@
+package uk.ac.nulondon;
+
+/**
+ * Direction of a seam. A seam holds one position for every line it crosses:
+ * the column in every row of a vertical seam, the row in every column of a horizontal one.
+ */
+public enum Orientation {
+    VERTICAL, //Removing it makes the image narrower
+    HORIZONTAL; //Removing it makes the image shorter
+
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     * @return Number of lines a seam crosses, one seam pixel in every line
+     */
+    int lines(int width, int height) {
+        return this == VERTICAL ? height : width;
+    }
+
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     * @return Number of positions a seam can take in every line
+     */
+    int positions(int width, int height) {
+        return this == VERTICAL ? width : height;
+    }
+}
@@ -0,0 +1,1196 @@
+package uk.ac.nulondon;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Image backed by packed ARGB rows instead of a linked grid of {@link Pixel} objects.
+ * Seams are arrays holding the position of the seam pixel in every line, see {@link Orientation}.
+ * Horizontal seams are read through the same rows, the image is never transposed.
+ */
+public class PackedImage {
+    private static final double[] BRIGHTNESS = new double[Argb.MAX_CHANNEL_SUM + 1]; //Brightness of every channel sum
+    private static final int PARALLEL_SEAM_WIDTH = 4096; //Narrower rows are not worth a barrier per row
+    private static final int BULK_PASS_DIVISOR = 4; //A bulk pass removes at most a quarter of every line
+    private static final int STRIP_PIXELS = 4 * 1024 * 1024; //Pixels decoded at once when reading a file
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8; //Largest array every JVM can allocate
+    private static final int MAX_FUNCTION_NAME_BYTES = 64; //Longer than the name of any built-in energy function
+    private static final int DIGEST_BAND_ROWS = 64; //Rows digested together, fixed so threads do not change the digest
+    /**
+     * How many times longer retargeting can make a side, so that a mistyped size does not allocate an image of
+     * any size. Inserting seams at most doubles a line too.
+     */
+    public static final int MAX_GROWTH = 2;
+
+    private int[] argb; //Row-major ARGB values
+    private short[] luminance; //Sum of the red, green and blue channels of every pixel, same layout as argb
+    private double[] energy; //Energy of each pixel, same layout as argb
+    private int[] rowOffset; //Index of the first pixel of every row, rows past the height are spare
+    private int stride; //Distance between the starts of two rows
+    private final DirtyBands dirty; //Pixels whose energy is out of date
+    private EnergyFunction energyFunction = EnergyFunction.sobel();
+    private ParallelRows workers = ParallelRows.of(1); //Threads calculating energy and seams
+    private int parallelSeamWidth = PARALLEL_SEAM_WIDTH;
+    private final SeamSolver solver = new SeamSolver(); //Keeps its buffers between seams
+    private final SeamPyramid pyramid = new SeamPyramid();
+    private int pyramidLevels = 0; //0 finds the exact lowest energy seam
+    private int pyramidBand = 0;
+    private boolean bulkRemoval = false; //Remove many seams found by a single search at once
+    private Metrics metrics = Metrics.disabled();
+    private EnergyCache energyCache; //Energy and first seams of images seen before, null to not cache anything
+    private String contentDigest;
+    private boolean hashed = false; //Whether the pixels are still the ones contentDigest was taken of
+    private boolean asLoaded = true; //Pixels are still the ones read, the only ones worth caching anything for
+
+    private int width;
+    private int height;
+
+    public PackedImage(BufferedImage img) {
+        this(img.getWidth(), img.getHeight());
+        Rasters.read(img, 0, height, argb, 0, stride); //Alpha is dropped, as in Pixel
+        fillLuminance();
+    }
+
+    /**
+     * Empty image, to be filled in with {@link #argb} and {@link #fillLuminance()}
+     */
+    private PackedImage(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    /**
+     * Image of the given pixels, to be filled in with {@link #fillLuminance()}
+     * @param argb ARGB value of every pixel, row after row, kept as it is
+     */
+    private PackedImage(int width, int height, int[] argb) {
+        this.width = width;
+        this.height = height;
+        stride = width;
+        this.argb = argb;
+        luminance = new short[argb.length];
+        energy = new double[argb.length];
+        rowOffset = new int[height];
+        dirty = new DirtyBands(height);
+        for (int row = 0; row < height; row++) {
+            rowOffset[row] = row * stride;
+        }
+    }
+
+    private void fillLuminance() {
+        for (int i = 0; i < argb.length; i++) {
+            luminance[i] = channelSum(argb[i]);
+        }
+    }
+
+    /**
+     * Read an image file, a strip of rows at a time when the decoded image would not fit next to the packed
+     * pixels, see {@link StripReader}.
+     * @param file image file
+     * @return image read from the file
+     * @throws IOException if the file cannot be read or is not an image
+     */
+    public static PackedImage read(File file) throws IOException {
+        return read(file, STRIP_PIXELS, StripReader.wholeImagePixels());
+    }
+
+    /**
+     * Read an image file a strip of rows at a time
+     * @param file image file
+     * @param stripPixels number of pixels decoded at once, whole rows are always decoded
+     * @param wholePixels largest image decoded whole
+     * @return image read from the file
+     * @throws IOException if the file cannot be read or is not an image
+     */
+    static PackedImage read(File file, int stripPixels, long wholePixels) throws IOException {
+        try (StripReader reader = new StripReader(file, stripPixels, wholePixels)) {
+            PackedImage image = new PackedImage(reader.getWidth(), reader.getHeight());
+            reader.read((strip, stripRow, firstRow, rows) ->
+                    Rasters.read(strip, stripRow, rows, image.argb, firstRow * image.stride, image.stride));
+            image.fillLuminance();
+            return image;
+        }
+    }
+
+    /**
+     * Write the pixels row by row, then the energy plane if it is asked for. The energy function is written
+     * by name, so only images with one of the built-in functions can be written.
+     * @param out snapshot being written
+     * @param withEnergy whether the energy plane is written
+     * @throws IOException if the snapshot cannot be written
+     * @throws IllegalStateException if the energy function is not a built-in one
+     */
+    void writeSnapshot(SnapshotOutput out, boolean withEnergy) throws IOException {
+        String function = builtInEnergyName();
+        if (function == null) {
+            throw new IllegalStateException("Only built-in energy functions can be written: " + energyFunction);
+        }
+        boolean energyKept = withEnergy;
+        out.putInt(width);
+        out.putInt(height);
+        out.putString(function);
+        out.putByte(energyKept ? 1 : 0);
+        for (int row = 0; row < height; row++) {
+            out.putInts(argb, rowOffset[row], width);
+        }
+        if (energyKept) {
+            updateEnergy();
+            for (int row = 0; row < height; row++) {
+                out.putDoubles(energy, rowOffset[row], width);
+            }
+        }
+    }
+
+    /**
+     * Read an image written by {@link #writeSnapshot(SnapshotOutput, boolean)}, with the same energy function.
+     * The energy is only calculated again if it was not written. The pixels have to be there before
+     * the image is allocated, so a corrupt size fails with an exception rather than running out of memory.
+     * @param in snapshot being read
+     * @return image read from the snapshot
+     * @throws IOException if the snapshot cannot be read
+     */
+    static PackedImage readSnapshot(SnapshotInput in) throws IOException {
+        int width = in.getInt();
+        int height = in.getInt();
+        if (width < 1 || height < 1 || (long) width * height > MAX_ARRAY_LENGTH) {
+            throw new IOException("Corrupt snapshot: image size " + width + "x" + height);
+        }
+        EnergyFunction function = builtInEnergy(in.getString(MAX_FUNCTION_NAME_BYTES)); //Any other name is corrupt
+        boolean energyKept = in.getByte() == 1;
+        long pixels = (long) width * height;
+        in.requireRemaining(pixels * (energyKept ? Integer.BYTES + Double.BYTES : Integer.BYTES));
+        PackedImage image = new PackedImage(width, height, in.getInts((int) pixels));
+        image.energyFunction = function;
+        image.fillLuminance();
+        if (energyKept) {
+            in.getDoubles(image.energy, 0, image.energy.length);
+            image.dirty.clearAll();
+        }
+        return image;
+    }
+
+    /**
+     * @param name name of a {@link ScalarEnergy} constant
+     * @return The function, vectorized when the vector module is loaded
+     */
+    private static EnergyFunction builtInEnergy(String name) throws IOException {
+        try {
+            ScalarEnergy scalar = ScalarEnergy.valueOf(name);
+            return EnergyFunction.isVectorized() ? VectorEnergy.valueOf(name) : scalar;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown energy function " + name, e);
+        }
+    }
+
+    /**
+     * Copy of another image, sharing nothing with it
+     * @param other image to copy
+     */
+    public PackedImage(PackedImage other) {
+        width = other.width;
+        height = other.height;
+        stride = other.stride;
+        argb = other.argb.clone();
+        luminance = other.luminance.clone();
+        energy = other.energy.clone();
+        rowOffset = other.rowOffset.clone();
+        dirty = new DirtyBands(height); //Energy is recalculated on first use
+        workers = other.workers;
+        parallelSeamWidth = other.parallelSeamWidth;
+        solver.setWorkers(workers, parallelSeamWidth);
+        pyramidLevels = other.pyramidLevels;
+        pyramidBand = other.pyramidBand;
+        energyFunction = other.energyFunction;
+        bulkRemoval = other.bulkRemoval;
+        metrics = other.metrics;
+        energyCache = other.energyCache;
+        asLoaded = other.asLoaded;
+    }
+
+    public BufferedImage toBufferedImage() {
+        return Rasters.write(width, height, argb, rowOffset); //Rows are not always in order
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    static {
+        for (int sum = 0; sum < BRIGHTNESS.length; sum++) {
+            BRIGHTNESS[sum] = sum / 3.0; //Same value as Pixel.brightness()
+        }
+    }
+
+    /**
+     * Sum of the channels of a packed pixel, which is all that brightness needs
+     * @param rgb packed pixel value
+     * @return sum of the red, green and blue channels
+     */
+    static short channelSum(int rgb) {
+        return (short) (Argb.red(rgb) + Argb.green(rgb) + Argb.blue(rgb));
+    }
+
+    /**
+     * Brightness of the pixel at the given index, same as {@link Pixel#brightness()}
+     * @param index index of the pixel
+     * @return average of the red, green and blue channels
+     */
+    private double brightness(int index) {
+        return BRIGHTNESS[luminance[index]];
+    }
+
+    /**
+     * Change how the energy of the pixels is calculated, {@link EnergyFunction#sobel()} by default
+     * @param function energy of the pixels which are not on the edge of the image
+     */
+    public void setEnergyFunction(EnergyFunction function) {
+        energyFunction = function;
+        dirty.markAll();
+    }
+
+    public EnergyFunction getEnergyFunction() {
+        return energyFunction;
+    }
+
+    /**
+     * @return Name of the energy function if it is a built-in one, the only ones whose name tells
+     * what the energy is, otherwise null
+     */
+    private String builtInEnergyName() {
+        return energyFunction instanceof Enum<?> builtIn ? builtIn.name() : null;
+    }
+
+    /**
+     * Calculate energy for all the pixels in the image
+     */
+    public void calculateEnergy() {
+        Metrics.Sample sample = metrics.start(Metrics.Operation.ENERGY);
+        String function = builtInEnergyName();
+        hashed = asLoaded && energyCache != null && function != null;
+        if (hashed) {
+            contentDigest = digestPixels();
+            double[] cached = energyCache.getEnergy(contentDigest, width, height, function);
+            if (cached != null) {
+                for (int row = 0; row < height; row++) {
+                    System.arraycopy(cached, row * width, energy, rowOffset[row], width);
+                }
+                dirty.clearAll();
+                sample.stop();
+                return;
+            }
+        }
+        workers.forEachBand(height, (from, to) -> {
+            for (int row = from; row < to; row++) {
+                calculateEnergy(row, 0, width - 1);
+            }
+        });
+        dirty.clearAll();
+        if (hashed && energyCache.accepts((long) width * height * Double.BYTES)) {
+            double[] packed = new double[width * height];
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(energy, rowOffset[row], packed, row * width, width);
+            }
+            energyCache.putEnergy(contentDigest, width, height, function, packed);
+        }
+        sample.stop();
+    }
+
+    /**
+     * Keep the energy and the first seams of every image in a cache, so that another image
+     * with the same pixels does not calculate them again. Only the built-in energy functions are cached, and only
+     * while the pixels are the ones read: the first edit, or a copy of an edited image, stops caching.
+     * @param cache where the energy goes, e.g. {@link EnergyCache#shared()}, or null to not cache anything
+     */
+    public void setEnergyCache(EnergyCache cache) {
+        energyCache = cache;
+        hashed = false;
+    }
+
+    /**
+     * SHA-256 of the size and the pixels of the image, so that no image, however crafted, gets the energy of
+     * another one from the cache. Bands of rows are digested in parallel, then their digests in order.
+     * @return Digest in hexadecimal
+     */
+    private String digestPixels() {
+        int bands = (height + DIGEST_BAND_ROWS - 1) / DIGEST_BAND_ROWS;
+        byte[][] digests = new byte[bands][];
+        workers.forEachBand(bands, (from, to) -> {
+            MessageDigest sha = sha256();
+            ByteBuffer row = ByteBuffer.allocate(width * Integer.BYTES);
+            for (int band = from; band < to; band++) {
+                for (int r = band * DIGEST_BAND_ROWS; r < Math.min(height, (band + 1) * DIGEST_BAND_ROWS); r++) {
+                    row.asIntBuffer().put(argb, rowOffset[r], width);
+                    sha.update(row.array());
+                }
+                digests[band] = sha.digest();
+            }
+        });
+        MessageDigest sha = sha256();
+        sha.update(ByteBuffer.allocate(2 * Integer.BYTES).putInt(width).putInt(height).array());
+        for (byte[] digest : digests) {
+            sha.update(digest);
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has SHA-256", e);
+        }
+    }
+
+    /**
+     * Note that the pixels no longer are the ones read, so that nothing found for them gets cached.
+     * Edited images rarely come back, and their energy would only push out the energy of images read again.
+     */
+    private void edited() {
+        asLoaded = false;
+        hashed = false;
+    }
+
+    /**
+     * Measure the energy calculations, seam searches and seam edits of the image
+     * @param metrics where the measurements go, {@link Metrics#disabled()} by default
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set how many threads calculate the energy of the image. Every row only depends on the rows
+     * above and below it, so bands of rows are calculated in parallel with the same result.
+     * Seam search of images at least {@link #setParallelSeamWidth(int)} wide also uses these threads.
+     * The threads are shared with every other image using the same number of threads.
+     * @param parallelism number of threads, 1 to calculate on the calling thread
+     */
+    public void setParallelism(int parallelism) {
+        workers = ParallelRows.of(parallelism);
+        solver.setWorkers(workers, parallelSeamWidth);
+    }
+
+    /**
+     * Set the width from which seam search splits every row into column chunks calculated in parallel.
+     * Every column only depends on three columns of the row above, so the seam found is the same.
+     * @param minWidth narrowest image searched in parallel
+     */
+    public void setParallelSeamWidth(int minWidth) {
+        parallelSeamWidth = minWidth;
+        solver.setWorkers(workers, parallelSeamWidth);
+    }
+
+    /**
+     * Find lowest energy seams on a smaller copy of the energy and refine them at full size only around
+     * the seam found there, see {@link #measureApproximation(Orientation)} for how good they are.
+     * @param levels number of times the energy is halved in both directions, 0 to find the exact seams
+     * @param band number of pixels searched on each side of the seam of the smaller copy
+     */
+    public void setApproximation(int levels, int band) {
+        if (levels < 0 || levels > 0 && band < 1) {
+            throw new IllegalArgumentException("Invalid approximation: " + levels + " levels, band " + band);
+        }
+        pyramidLevels = levels;
+        pyramidBand = band;
+    }
+
+    /**
+     * How far the approximate lowest energy seam is from the exact one
+     * @param maxDistance largest distance between the two seams in a line
+     * @param meanDistance average distance between the two seams
+     * @param exactEnergy total energy of the exact seam
+     * @param approximateEnergy total energy of the approximate seam
+     */
+    public record Divergence(int maxDistance, double meanDistance, double exactEnergy, double approximateEnergy) {
+        /**
+         * @return Extra energy of the approximate seam, relative to the exact one
+         */
+        public double excessEnergy() {
+            return exactEnergy == 0 ? 0 : approximateEnergy / exactEnergy - 1;
+        }
+    }
+
+    /**
+     * Find the current lowest energy seam both approximately and exactly and compare them
+     * @param orientation direction of the seams
+     * @return Difference between the two seams
+     */
+    public Divergence measureApproximation(Orientation orientation) {
+        int[] approximate = getLowestEnergySeam(orientation);
+        int[] exact = getSeamMaximizing(index -> -energy[index], true, orientation, "lowest energy");
+        int maxDistance = 0;
+        long totalDistance = 0;
+        for (int line = 0; line < exact.length; line++) {
+            int distance = Math.abs(exact[line] - approximate[line]);
+            maxDistance = Math.max(maxDistance, distance);
+            totalDistance += distance;
+        }
+        return new Divergence(maxDistance, (double) totalDistance / exact.length,
+                averageEnergy(exact, orientation) * exact.length,
+                averageEnergy(approximate, orientation) * approximate.length);
+    }
+
+    /**
+     * Recalculate energy only for the pixels next to seams edited since the last calculation
+     */
+    public void updateEnergy() {
+        if (dirty.isAllDirty()) {
+            calculateEnergy();
+            return;
+        }
+        Metrics.Sample sample = metrics.start(Metrics.Operation.ENERGY);
+        for (int row = 0; row < height; row++) {
+            if (dirty.isDirty(row)) {
+                calculateEnergy(row, dirty.from(row), dirty.to(row));
+                dirty.clear(row);
+            }
+        }
+        sample.stop();
+    }
+
+    /**
+     * Calculate energy for a range of pixels in a row
+     * @param row row of the pixels
+     * @param from first column to calculate
+     * @param to last column to calculate
+     */
+    private void calculateEnergy(int row, int from, int to) {
+        int current = rowOffset[row];
+        if (row == 0 || row == height - 1) { //Edge rows use the brightness of the pixel
+            for (int col = from; col <= to; col++) {
+                energy[current + col] = brightness(current + col);
+            }
+            return;
+        }
+        if (from == 0) { //Edge columns use the brightness of the pixel too
+            energy[current] = brightness(current);
+        }
+        if (to == width - 1) {
+            energy[current + to] = brightness(current + to);
+        }
+        energyFunction.calculateRow(new EnergyFunction.Row(argb, luminance, energy, rowOffset[row - 1], current,
+                rowOffset[row + 1]), Math.max(1, from), Math.min(to + 1, width - 1));
+    }
+
+    /**
+     * Highlights the seam
+     * @param seam column of the seam in every row
+     * @param color Color of highlight
+     * @return Previous values of the seam pixels
+     */
+    public int[] highlightSeam(int[] seam, Color color) {
+        return highlightSeam(seam, color, Orientation.VERTICAL);
+    }
+
+    /**
+     * Highlights the seam
+     * @param seam position of the seam in every line
+     * @param color Color of highlight
+     * @param orientation direction of the seam
+     * @return Previous values of the seam pixels
+     */
+    public int[] highlightSeam(int[] seam, Color color, Orientation orientation) {
+        int[] values = new int[seam.length];
+        Arrays.fill(values, color.getRGB());
+        return setSeam(seam, values, orientation);
+    }
+
+    /**
+     * Replace the pixels of the seam, e.g. to take a highlight back
+     * @param seam column of the seam in every row
+     * @param values new ARGB values of the seam pixels
+     * @return Previous values of the seam pixels
+     */
+    public int[] setSeam(int[] seam, int[] values) {
+        return setSeam(seam, values, Orientation.VERTICAL);
+    }
+
+    /**
+     * Replace the pixels of the seam, e.g. to take a highlight back
+     * @param seam position of the seam in every line
+     * @param values new ARGB values of the seam pixels
+     * @param orientation direction of the seam
+     * @return Previous values of the seam pixels
+     */
+    public int[] setSeam(int[] seam, int[] values, Orientation orientation) {
+        edited();
+        int[] previous = new int[seam.length];
+        for (int line = 0; line < seam.length; line++) {
+            int index = index(orientation, line, seam[line]);
+            previous[line] = argb[index];
+            argb[index] = values[line] | Argb.OPAQUE;
+            luminance[index] = channelSum(values[line]);
+        }
+        if (orientation == Orientation.VERTICAL) {
+            dirty.seamChanged(seam, width);
+        } else {
+            dirty.horizontalSeamChanged(seam, width);
+        }
+        return previous;
+    }
+
+    /**
+     * Index of a pixel
+     * @param orientation direction of the seam the pixel is on
+     * @param line row of the pixel for vertical seams, column for horizontal ones
+     * @param position position of the pixel in the line
+     * @return index of the pixel in the planes
+     */
+    private int index(Orientation orientation, int line, int position) {
+        return orientation == Orientation.VERTICAL ? rowOffset[line] + position : rowOffset[position] + line;
+    }
+
+    /**
+     * Removes provided seam, shifting the rest of every row to the left
+     * @param seam column of the seam in every row
+     * @return Values of the removed pixels, to be passed back to {@link #addSeam(int[], int[])}
+     */
+    public int[] removeSeam(int[] seam) {
+        return removeSeam(seam, Orientation.VERTICAL);
+    }
+
+    /**
+     * Removes provided seam, shifting the rest of every line towards its start
+     * @param seam position of the seam in every line
+     * @param orientation direction of the seam
+     * @return Values of the removed pixels, to be passed back to {@link #addSeam(int[], int[], Orientation)}
+     */
+    public int[] removeSeam(int[] seam, Orientation orientation) {
+        Metrics.Sample sample = metrics.start(Metrics.Operation.REMOVE_SEAM);
+        edited();
+        if (orientation == Orientation.HORIZONTAL) {
+            int[] removed = removeHorizontalSeam(seam);
+            sample.stop();
+            return removed;
+        }
+        int[] removed = new int[height];
+        for (int row = 0; row < height; row++) {
+            int index = rowOffset[row] + seam[row];
+            removed[row] = argb[index];
+            System.arraycopy(argb, index + 1, argb, index, width - seam[row] - 1);
+            System.arraycopy(luminance, index + 1, luminance, index, width - seam[row] - 1);
+            System.arraycopy(energy, index + 1, energy, index, width - seam[row] - 1);
+        }
+        width--;
+        dirty.seamRemoved(seam, width);
+        sample.stop();
+        return removed;
+    }
+
+    /**
+     * Add the provided seam, shifting the rest of every row to the right
+     * @param seam column of the seam in every row
+     * @param values ARGB values of the seam pixels
+     */
+    public void addSeam(int[] seam, int[] values) {
+        addSeam(seam, values, Orientation.VERTICAL);
+    }
+
+    /**
+     * Add the provided seam, shifting the rest of every line towards its end
+     * @param seam position of the seam in every line
+     * @param values ARGB values of the seam pixels
+     * @param orientation direction of the seam
+     */
+    public void addSeam(int[] seam, int[] values, Orientation orientation) {
+        Metrics.Sample sample = metrics.start(Metrics.Operation.ADD_SEAM);
+        edited();
+        if (orientation == Orientation.HORIZONTAL) {
+            addHorizontalSeam(seam, values);
+            sample.stop();
+            return;
+        }
+        if (width == stride) {
+            grow();
+        }
+        for (int row = 0; row < height; row++) {
+            int index = rowOffset[row] + seam[row];
+            System.arraycopy(argb, index, argb, index + 1, width - seam[row]);
+            System.arraycopy(luminance, index, luminance, index + 1, width - seam[row]);
+            System.arraycopy(energy, index, energy, index + 1, width - seam[row]);
+            argb[index] = values[row] | Argb.OPAQUE;
+            luminance[index] = channelSum(values[row]);
+        }
+        width++;
+        dirty.seamAdded(seam, width);
+        sample.stop();
+    }
+
+    /**
+     * Removes a horizontal seam, moving the pixels below it up. Whole rows below the lowest seam pixel
+     * are moved by reusing their offsets, so only the rows the seam crosses are copied, one row at a time.
+     * @param seam row of the seam in every column
+     * @return Values of the removed pixels
+     */
+    private int[] removeHorizontalSeam(int[] seam) {
+        int[] removed = new int[width];
+        int top = height - 1;
+        int bottom = 0;
+        for (int col = 0; col < width; col++) {
+            removed[col] = argb[rowOffset[seam[col]] + col];
+            top = Math.min(top, seam[col]);
+            bottom = Math.max(bottom, seam[col]);
+        }
+        for (int row = top; row < bottom; row++) { //Only the columns where the seam is above move up
+            int current = rowOffset[row];
+            int below = rowOffset[row + 1];
+            for (int col = 0; col < width; col++) {
+                if (seam[col] <= row) {
+                    argb[current + col] = argb[below + col];
+                    luminance[current + col] = luminance[below + col];
+                    energy[current + col] = energy[below + col];
+                }
+            }
+        }
+        int freed = rowOffset[bottom]; //Every column of the rows below has moved up, the row becomes spare
+        System.arraycopy(rowOffset, bottom + 1, rowOffset, bottom, height - bottom - 1);
+        rowOffset[height - 1] = freed;
+        height--;
+        dirty.horizontalSeamRemoved(seam, width);
+        return removed;
+    }
+
+    /**
+     * Add a horizontal seam, moving the pixels below it down. Rows below the lowest seam pixel
+     * are moved by reusing their offsets, like in {@link #removeHorizontalSeam(int[])}.
+     * @param seam row of the seam in every column
+     * @param values ARGB values of the seam pixels
+     */
+    private void addHorizontalSeam(int[] seam, int[] values) {
+        if (height == rowOffset.length) {
+            reallocate(stride, height + Math.max(1, height / 2));
+        }
+        int top = height;
+        int bottom = 0;
+        for (int col = 0; col < width; col++) {
+            top = Math.min(top, seam[col]);
+            bottom = Math.max(bottom, seam[col]);
+        }
+        if (bottom < height) { //Row below the lowest seam pixel is a copy of it, the rest only move
+            int spare = rowOffset[height];
+            copyRow(rowOffset[bottom], spare);
+            System.arraycopy(rowOffset, bottom + 1, rowOffset, bottom + 2, height - bottom - 1);
+            rowOffset[bottom + 1] = spare;
+        }
+        for (int row = bottom; row >= top; row--) { //Bottom up, so the row above is still unchanged
+            int current = rowOffset[row];
+            int above = row > 0 ? rowOffset[row - 1] : 0;
+            for (int col = 0; col < width; col++) {
+                if (seam[col] < row) {
+                    argb[current + col] = argb[above + col];
+                    luminance[current + col] = luminance[above + col];
+                    energy[current + col] = energy[above + col];
+                } else if (seam[col] == row) {
+                    argb[current + col] = values[col] | Argb.OPAQUE;
+                    luminance[current + col] = channelSum(values[col]);
+                }
+            }
+        }
+        height++;
+        dirty.horizontalSeamAdded(seam, width);
+    }
+
+    /**
+     * Copy the pixels of a row into another one
+     * @param from index of the first pixel of the row to copy
+     * @param to index of the first pixel of the row to overwrite
+     */
+    private void copyRow(int from, int to) {
+        movePixels(from, to, width);
+    }
+
+    /**
+     * Copy pixels of every plane, the ranges may overlap
+     * @param from index of the first pixel to copy
+     * @param to index where the first pixel is copied
+     * @param length number of pixels
+     */
+    private void movePixels(int from, int to, int length) {
+        System.arraycopy(argb, from, argb, to, length);
+        System.arraycopy(luminance, from, luminance, to, length);
+        System.arraycopy(energy, from, energy, to, length);
+    }
+
+    /**
+     * Make room for wider rows once seams are added past the original width
+     */
+    private void grow() {
+        reallocate(stride + Math.max(1, stride / 2), rowOffset.length);
+    }
+
+    /**
+     * Copy the rows into new planes, one row after the other
+     * @param newStride distance between the starts of two rows
+     * @param rows number of rows to make room for
+     */
+    private void reallocate(int newStride, int rows) {
+        int[] newArgb = new int[newStride * rows];
+        short[] newLuminance = new short[newArgb.length];
+        double[] newEnergy = new double[newArgb.length];
+        int[] newOffset = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            newOffset[row] = row * newStride;
+            if (row < height) {
+                System.arraycopy(argb, rowOffset[row], newArgb, newOffset[row], width);
+                System.arraycopy(luminance, rowOffset[row], newLuminance, newOffset[row], width);
+                System.arraycopy(energy, rowOffset[row], newEnergy, newOffset[row], width);
+            }
+        }
+        argb = newArgb;
+        luminance = newLuminance;
+        energy = newEnergy;
+        rowOffset = newOffset;
+        stride = newStride;
+    }
+
+    /**
+     * Find the seam which maximizes total value extracted from the given pixel.
+     * Picks the same seam as the linked {@link Image} implementation.
+     * @param valueGetter value of the pixel at the given index
+     * @param cumulative whether the values add up along the seam or are compared line by line
+     * @param orientation direction of the seam
+     * @param criterion what the seam is made of, for caching the first seam of an image
+     * @return position of the seam in every line
+     */
+    private int[] getSeamMaximizing(IntToDoubleFunction valueGetter, boolean cumulative, Orientation orientation,
+                                    String criterion) {
+        updateEnergy(); //Calculate energy of the pixels changed since the last seam
+        Metrics.Sample sample = metrics.start(Metrics.Operation.SEAM_SEARCH);
+        //Only hashed with a built-in energy function, whose name tells which energy the seam was found in
+        String key = hashed ? criterion + " " + builtInEnergyName() + " " + orientation : null;
+        int[] cached = hashed ? energyCache.getSeam(contentDigest, width, height, key) : null;
+        if (cached != null) {
+            sample.stop();
+            return cached.clone();
+        }
+        int[] seam = solver.findSeam(orientation.positions(width, height), orientation.lines(width, height),
+                lineValues(valueGetter, orientation), cumulative);
+        if (hashed) {
+            energyCache.putSeam(contentDigest, width, height, key, seam.clone());
+        }
+        sample.stop();
+        return seam;
+    }
+
+    /**
+     * Read the values of the pixels one line at a time
+     * @param valueGetter value of the pixel at the given index
+     * @param orientation direction of the seam
+     * @return values of the pixels of the lines
+     */
+    private SeamSolver.RowValues lineValues(IntToDoubleFunction valueGetter, Orientation orientation) {
+        if (orientation == Orientation.VERTICAL) {
+            return (row, from, to, values) -> {
+                int offset = rowOffset[row];
+                for (int col = from; col < to; col++) {
+                    values[col] = valueGetter.applyAsDouble(offset + col);
+                }
+            };
+        }
+        return (col, from, to, values) -> { //Lines are columns
+            for (int row = from; row < to; row++) {
+                values[row] = valueGetter.applyAsDouble(rowOffset[row] + col);
+            }
+        };
+    }
+
+    /**
+     * Gets the greenest seam in the image
+     * @return Greenest seam
+     */
+    public int[] getGreenestSeam() {
+        return getGreenestSeam(Orientation.VERTICAL);
+    }
+
+    /**
+     * Gets the greenest seam in the image
+     * @param orientation direction of the seam
+     * @return Greenest seam
+     */
+    public int[] getGreenestSeam(Orientation orientation) {
+        return getSeamMaximizing(index -> Argb.green(argb[index]), false, orientation, "greenest");
+    }
+
+    /**
+     * Gets the seam with the lowest energy
+     * @return Seam with the lowest energy
+     */
+    public int[] getLowestEnergySeam() {
+        return getLowestEnergySeam(Orientation.VERTICAL);
+    }
+
+    /**
+     * Gets the seam with the lowest energy, or one close to it once {@link #setApproximation(int, int)} is set
+     * @param orientation direction of the seam
+     * @return Seam with the lowest energy
+     */
+    public int[] getLowestEnergySeam(Orientation orientation) {
+        //Maximizing negation of energy is the same as minimizing the energy
+        if (pyramidLevels > 0) {
+            updateEnergy();
+            Metrics.Sample sample = metrics.start(Metrics.Operation.SEAM_SEARCH);
+            int[] seam = pyramid.findSeam(orientation.positions(width, height), orientation.lines(width, height),
+                    lineValues(index -> -energy[index], orientation), pyramidLevels, pyramidBand);
+            sample.stop();
+            return seam;
+        }
+        return getSeamMaximizing(index -> -energy[index], true, orientation, "lowest energy");
+    }
+
+    /**
+     * Average energy of the pixels of a seam, which compares seams of different lengths
+     * @param seam position of the seam in every line
+     * @param orientation direction of the seam
+     * @return energy per pixel of the seam
+     */
+    private double averageEnergy(int[] seam, Orientation orientation) {
+        double total = 0;
+        for (int line = 0; line < seam.length; line++) {
+            total += energy[index(orientation, line, seam[line])];
+        }
+        return total / seam.length;
+    }
+
+    /**
+     * Seam removed or inserted while retargeting the image
+     * @param orientation direction of the seam
+     * @param seam position of the seam in every line
+     * @param removed values of the removed pixels, null when the seam was inserted
+     */
+    public record Edit(Orientation orientation, int[] seam, int[] removed) {
+    }
+
+    /**
+     * Let {@link #retarget(int, int)} remove seams with {@link #removeLowEnergySeams(int, Orientation)},
+     * all vertical seams first, instead of one seam search per seam
+     * @param bulk whether to remove many seams at once
+     */
+    public void setBulkRemoval(boolean bulk) {
+        bulkRemoval = bulk;
+    }
+
+    /**
+     * Remove low energy seams, many at a time. Every pass finds up to a quarter of a line worth of seams
+     * which do not touch or cross each other from a single seam search, and removes them all in one pass
+     * over the image. The seams are not quite as good as searching again after every seam.
+     * @param count number of seams to remove, smaller than the length of a line
+     * @param orientation direction of the seams
+     * @return Seams removed, as if removed one after the other, to be passed to {@link #revert(List)}
+     */
+    public List<Edit> removeLowEnergySeams(int count, Orientation orientation) {
+        if (count < 0 || count >= orientation.positions(width, height)) {
+            throw new IllegalArgumentException("Cannot remove " + count + " seams from lines of "
+                    + orientation.positions(width, height));
+        }
+        List<Edit> edits = new ArrayList<>(count);
+        while (edits.size() < count) {
+            checkInterrupted();
+            int positions = orientation.positions(width, height);
+            int batch = Math.min(count - edits.size(), Math.max(1, positions / BULK_PASS_DIVISOR));
+            updateEnergy();
+            Metrics.Sample search = metrics.start(Metrics.Operation.SEAM_SEARCH);
+            List<int[]> seams = solver.findSeams(positions, orientation.lines(width, height),
+                    lineValues(index -> -energy[index], orientation), batch);
+            search.stop();
+            Metrics.Sample removal = metrics.start(Metrics.Operation.REMOVE_SEAM);
+            edits.addAll(removeSeams(seams, orientation));
+            removal.stop();
+        }
+        return edits;
+    }
+
+    /**
+     * Remove seams which do not share any pixel in a single pass over the image
+     * @param seams seams to remove
+     * @param orientation direction of the seams
+     * @return Seams removed, as if removed one after the other
+     */
+    private List<Edit> removeSeams(List<int[]> seams, Orientation orientation) {
+        edited();
+        int count = seams.size();
+        int lines = orientation.lines(width, height);
+        int[] removed = new int[lines * count]; //Removed positions of every line, in order
+        for (int line = 0; line < lines; line++) {
+            for (int k = 0; k < count; k++) {
+                removed[line * count + k] = seams.get(k)[line];
+            }
+            Arrays.sort(removed, line * count, (line + 1) * count);
+        }
+
+        //k-th removed pixel of every line, moved by the k pixels removed before it
+        List<Edit> edits = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            int[] seam = new int[lines];
+            int[] values = new int[lines];
+            for (int line = 0; line < lines; line++) {
+                seam[line] = removed[line * count + k] - k;
+                values[line] = argb[index(orientation, line, removed[line * count + k])];
+            }
+            edits.add(new Edit(orientation, seam, values));
+        }
+
+        if (orientation == Orientation.VERTICAL) { //Move what is between the removed pixels of every row
+            for (int row = 0; row < height; row++) {
+                int offset = rowOffset[row];
+                for (int k = 0; k < count; k++) {
+                    int start = removed[row * count + k] + 1;
+                    int end = k + 1 < count ? removed[row * count + k + 1] : width;
+                    movePixels(offset + start, offset + start - k - 1, end - start);
+                }
+            }
+            width -= count;
+        } else { //Row by row, every pixel moves up by the pixels removed above it in its column
+            int[] skipped = new int[width];
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    if (skipped[col] < count && removed[col * count + skipped[col]] == row) {
+                        skipped[col]++;
+                    } else if (skipped[col] > 0) { //Energy is recalculated anyway
+                        int from = rowOffset[row] + col;
+                        int to = rowOffset[row - skipped[col]] + col;
+                        argb[to] = argb[from];
+                        luminance[to] = luminance[from];
+                    }
+                }
+            }
+            height -= count;
+        }
+        dirty.resize(height);
+        return edits;
+    }
+
+    /**
+     * Remove or insert lowest energy seams until the image has the given width.
+     * Nothing is exported in between and the seam search buffers are reused for every seam.
+     * @param targetWidth width of the resized image
+     * @return Seams removed and inserted, in order
+     */
+    public List<Edit> resizeToWidth(int targetWidth) {
+        return retarget(targetWidth, height);
+    }
+
+    /**
+     * Carve a copy of the image one lowest energy vertical seam after the other, recording the seam
+     * every pixel was removed with, so that the image can be carved to any width in a single pass
+     * @param minWidth narrowest width wanted, carving stops there
+     * @return order the pixels are removed in
+     */
+    public RemovalOrder removalOrder(int minWidth) {
+        if (minWidth < 1 || minWidth > width) {
+            throw new IllegalArgumentException("Cannot carve " + width + " pixels down to " + minWidth);
+        }
+        PackedImage carved = new PackedImage(this);
+        int[] order = new int[width * height];
+        Arrays.fill(order, Integer.MAX_VALUE); //Never removed
+        int[] original = new int[width * height]; //Column in this image of every pixel of the copy
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                original[row * width + col] = col;
+            }
+        }
+        for (int k = 0; k < width - minWidth; k++) {
+            checkInterrupted();
+            int[] seam = carved.getLowestEnergySeam();
+            for (int row = 0; row < height; row++) {
+                int index = row * width + seam[row];
+                order[row * width + original[index]] = k;
+                System.arraycopy(original, index + 1, original, index, carved.width - seam[row] - 1);
+            }
+            carved.removeSeam(seam);
+        }
+        int[] pixels = new int[width * height];
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(argb, rowOffset[row], pixels, row * width, width);
+        }
+        return new RemovalOrder(width, height, minWidth, pixels, order);
+    }
+
+    /**
+     * Check that the image can be retargeted to the given size
+     * @param targetWidth width of the resized image
+     * @param targetHeight height of the resized image
+     * @throws IllegalArgumentException if a side is not positive or more than {@link #MAX_GROWTH} times as long
+     */
+    public void checkTargetSize(int targetWidth, int targetHeight) {
+        if (targetWidth < 1 || targetHeight < 1) {
+            throw new IllegalArgumentException("Size must be positive: " + targetWidth + "x" + targetHeight);
+        }
+        if (targetWidth > (long) width * MAX_GROWTH || targetHeight > (long) height * MAX_GROWTH) {
+            throw new IllegalArgumentException("Cannot grow " + width + "x" + height + " to "
+                    + targetWidth + "x" + targetHeight + ", at most " + MAX_GROWTH + " times each side");
+        }
+    }
+
+    /**
+     * Remove or insert lowest energy seams until the image has the given size.
+     * While both sides shrink, the best vertical and horizontal seams are compared and the one with
+     * the lower energy per pixel goes first, instead of searching every possible order of seams.
+     * Seams are inserted last, vertical ones first.
+     * @param targetWidth width of the resized image
+     * @param targetHeight height of the resized image
+     * @return Seams removed and inserted, in order, to be passed to {@link #revert(List)}
+     * @throws IllegalArgumentException if a side is not positive or more than {@link #MAX_GROWTH} times as long
+     * @throws CancellationException if the thread gets interrupted, the image is left partly resized
+     */
+    public List<Edit> retarget(int targetWidth, int targetHeight) {
+        checkTargetSize(targetWidth, targetHeight);
+        List<Edit> edits = new ArrayList<>();
+        if (bulkRemoval) {
+            edits.addAll(removeLowEnergySeams(Math.max(0, width - targetWidth), Orientation.VERTICAL));
+            edits.addAll(removeLowEnergySeams(Math.max(0, height - targetHeight), Orientation.HORIZONTAL));
+        }
+        while (width > targetWidth || height > targetHeight) {
+            checkInterrupted();
+            Orientation orientation = height <= targetHeight ? Orientation.VERTICAL : Orientation.HORIZONTAL;
+            int[] seam = getLowestEnergySeam(orientation);
+            if (width > targetWidth && height > targetHeight) { //Both shrink, take the cheaper seam
+                int[] vertical = getLowestEnergySeam(Orientation.VERTICAL);
+                if (averageEnergy(vertical, Orientation.VERTICAL) <= averageEnergy(seam, orientation)) {
+                    orientation = Orientation.VERTICAL;
+                    seam = vertical;
+                }
+            }
+            edits.add(new Edit(orientation, seam, removeSeam(seam, orientation)));
+        }
+        while (width < targetWidth) {
+            for (int[] seam : insertSeams(Math.min(targetWidth - width, Math.max(1, width - 1)))) {
+                edits.add(new Edit(Orientation.VERTICAL, seam, null));
+            }
+        }
+        while (height < targetHeight) {
+            int count = Math.min(targetHeight - height, Math.max(1, height - 1));
+            for (int[] seam : insertSeams(count, Orientation.HORIZONTAL)) {
+                edits.add(new Edit(Orientation.HORIZONTAL, seam, null));
+            }
+        }
+        return edits;
+    }
+
+    /**
+     * Stop a long resize once the thread running it is interrupted, e.g. by cancelling its future
+     */
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Resize interrupted");
+        }
+    }
+
+    /**
+     * Undo the edits of {@link #retarget(int, int)}, from the last one to the first one
+     * @param edits edits to undo, in the order they were made
+     */
+    public void revert(List<Edit> edits) {
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            Edit edit = edits.get(i);
+            if (edit.removed() == null) {
+                removeSeam(edit.seam(), edit.orientation());
+            } else {
+                addSeam(edit.seam(), edit.removed(), edit.orientation());
+            }
+        }
+    }
+
+    /**
+     * Duplicate the given number of lowest energy vertical seams
+     * @param count number of seams to insert, smaller than the width unless the width is 1
+     * @return Inserted pixels as seams, removing them from last to first restores the image
+     */
+    public List<int[]> insertSeams(int count) {
+        return insertSeams(count, Orientation.VERTICAL);
+    }
+
+    /**
+     * Duplicate the given number of lowest energy seams. The seams are found by carving a copy
+     * of the image, so that the same seam is not picked over and over again.
+     * @param count number of seams to insert, smaller than the length of a line unless it is 1
+     * @param orientation direction of the seams
+     * @return Inserted pixels as seams, removing them from last to first restores the image
+     */
+    public List<int[]> insertSeams(int count, Orientation orientation) {
+        int lines = orientation.lines(width, height);
+        int positions = orientation.positions(width, height);
+        if (count < 0 || count > Math.max(1, positions - 1)) {
+            throw new IllegalArgumentException("Cannot insert " + count + " seams into lines of " + positions);
+        }
+        PackedImage carved = new PackedImage(this);
+        int[] original = new int[lines * positions]; //Position in this image of every pixel of the copy
+        boolean[] duplicated = new boolean[lines * positions];
+        for (int line = 0; line < lines; line++) {
+            for (int position = 0; position < positions; position++) {
+                original[line * positions + position] = position;
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            checkInterrupted();
+            int[] seam = carved.getLowestEnergySeam(orientation);
+            int left = orientation.positions(carved.width, carved.height);
+            for (int line = 0; line < lines; line++) {
+                int index = line * positions + seam[line];
+                duplicated[line * positions + original[index]] = true;
+                System.arraycopy(original, index + 1, original, index, left - seam[line] - 1);
+            }
+            if (left > 1) {
+                carved.removeSeam(seam, orientation);
+            }
+        }
+
+        //Rebuild every row in one pass, writing the marked pixels twice
+        edited();
+        List<int[]> inserted = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            inserted.add(new int[lines]);
+        }
+        boolean vertical = orientation == Orientation.VERTICAL;
+        int newWidth = vertical ? width + count : width;
+        int newHeight = vertical ? height : height + count;
+        int newStride = Math.max(stride, newWidth);
+        int rows = Math.max(rowOffset.length, newHeight);
+        int[] newArgb = new int[rows * newStride];
+        int[] next = new int[lines]; //Next position to write in every line
+        int[] copies = new int[lines]; //Number of pixels written twice in every line
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int value = argb[rowOffset[row] + col];
+                int line = vertical ? row : col;
+                int position = next[line]++;
+                newArgb[vertical ? line * newStride + position : position * newStride + line] = value;
+                if (duplicated[line * positions + (vertical ? col : row)]) {
+                    position = next[line]++;
+                    inserted.get(copies[line]++)[line] = position; //k-th copy from the start of this line
+                    newArgb[vertical ? line * newStride + position : position * newStride + line] = value;
+                }
+            }
+        }
+        rowOffset = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            rowOffset[row] = row * newStride;
+        }
+        argb = newArgb;
+        luminance = new short[newArgb.length];
+        for (int row = 0; row < newHeight; row++) {
+            for (int index = rowOffset[row]; index < rowOffset[row] + newWidth; index++) {
+                luminance[index] = channelSum(argb[index]);
+            }
+        }
+        energy = new double[newArgb.length];
+        stride = newStride;
+        width = newWidth;
+        height = newHeight;
+        dirty.resize(height);
+        return inserted;
+    }
+}
@@ -0,0 +1,107 @@
+package uk.ac.nulondon;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs work over bands of image rows, or chunks of the columns of a row, on a fork/join pool.
+ * Every band must only write to its own rows or columns, reading neighbouring ones is fine.
+ * There is one instance, and so one pool, per number of threads, shared by every image of the process.
+ * The pool threads are daemon threads which stay alive for the life of the process, like the common pool.
+ */
+final class ParallelRows {
+    /**
+     * Work done on a band of rows or columns
+     */
+    interface Band {
+        /**
+         * @param from first row or column of the band
+         * @param to row or column after the last one of the band
+         */
+        void run(int from, int to);
+    }
+
+    private static final int BANDS_PER_THREAD = 4; //More bands than threads so fast threads can steal work
+    private static final Map<Integer, ParallelRows> SHARED = new ConcurrentHashMap<>();
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    private ParallelRows(int parallelism) {
+        this.parallelism = parallelism;
+        pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * @param parallelism number of threads, 1 runs everything on the calling thread
+     * @return Workers with that many threads, created on first use and shared from then on
+     */
+    static ParallelRows of(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        return SHARED.computeIfAbsent(parallelism, ParallelRows::new);
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Split the rows into bands and run them, returning once all of them are done
+     * @param rows number of rows
+     * @param band work for a band of rows
+     */
+    void forEachBand(int rows, Band band) {
+        run(rows, Math.max(1, rows / (parallelism * BANDS_PER_THREAD)), band);
+    }
+
+    /**
+     * Split the columns of a row into one chunk per thread and run them, returning once all of them are done.
+     * Meant to be called once per row, so it keeps the number of tasks low.
+     * @param columns number of columns
+     * @param chunk work for a chunk of columns
+     */
+    void forEachChunk(int columns, Band chunk) {
+        run(columns, Math.max(1, (columns + parallelism - 1) / parallelism), chunk);
+    }
+
+    private void run(int size, int grain, Band band) {
+        if (pool == null || size <= grain) {
+            band.run(0, size);
+            return;
+        }
+        pool.invoke(new Split(0, size, grain, band));
+    }
+
+    /**
+     * Halves the range until it is small enough to run
+     */
+    private static final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final transient Band band; //Never serialized, tasks only live in the pool
+
+        Split(int from, int to, int grain, Band band) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.band = band;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                band.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Split(from, middle, grain, band), new Split(middle, to, grain, band));
+        }
+    }
+}
@@ -8,21 +8,23 @@ public class Pixel {
 
     double energy;
 
-    final Color color;
+    final int rgb; //Packed color, no Color object per pixel
+    private final double brightness; //Calculated once, energy reads it many times
 
     public Pixel(int rgb) {
-        this.color = new Color(rgb);
+        this.rgb = rgb | Argb.OPAQUE; //Alpha is dropped
+        this.brightness = (Argb.red(rgb) + Argb.green(rgb) + Argb.blue(rgb)) / 3.0;
     }
 
     public Pixel(Color color) {
-        this.color = color;
+        this(color.getRGB());
     }
 
     public double brightness() {
-        return (color.getRed() + color.getGreen() + color.getBlue()) / 3.0;
+        return brightness;
     }
 
     public double getGreen() {
-        return color.getGreen();
+        return Argb.green(rgb);
     }
 }
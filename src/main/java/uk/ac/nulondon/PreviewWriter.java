@@ -0,0 +1,77 @@
+package uk.ac.nulondon;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Writes preview images on a background thread. Requests made while a preview is waiting to be written
+ * replace it, so only the latest state is encoded and the editor never waits for PNG compression.
+ */
+class PreviewWriter implements AutoCloseable {
+    private final Supplier<BufferedImage> snapshot; //Copy of the image, taken when the preview is written
+    //Virtual, so that editors of many sessions do not each hold a platform thread, and never keeps the JVM running
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(Thread.ofVirtual().name("preview-writer").factory());
+
+    private String pendingPath = null; //Where the next preview goes, null when nothing is waiting
+
+    /**
+     * @param snapshot copy of the current image, called on the background thread
+     */
+    PreviewWriter(Supplier<BufferedImage> snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Ask for the current image to be written to the given file
+     * @param filePath where the preview is saved
+     */
+    synchronized void request(String filePath) {
+        boolean idle = pendingPath == null;
+        pendingPath = filePath; //Replaces a preview that has not been written yet
+        if (idle) {
+            executor.execute(this::writeLatest);
+        }
+    }
+
+    private void writeLatest() {
+        String filePath;
+        synchronized (this) {
+            filePath = pendingPath;
+            pendingPath = null;
+        }
+        try {
+            ImageIO.write(snapshot.get(), "png", new File(filePath));
+        } catch (IOException e) {
+            System.out.println("Could not write preview " + filePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Wait until every requested preview has been written
+     */
+    void flush() {
+        try {
+            executor.submit(() -> { }).get(); //Runs after everything queued before it
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write the last preview and stop the background thread
+     */
+    @Override
+    public void close() {
+        flush();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,129 @@
+package uk.ac.nulondon;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Bulk copies between {@link BufferedImage} rasters and packed ARGB arrays.
+ * The common layouts are read straight from the data buffer, skipping the per-pixel color model conversion
+ * done by {@link BufferedImage#getRGB(int, int)}.
+ */
+final class Rasters {
+    private Rasters() {
+    }
+
+    /**
+     * Read rows of the image as opaque ARGB values, dropping alpha like {@link Pixel} does
+     * @param img image to read
+     * @param firstRow first row to read
+     * @param rows number of rows to read
+     * @param out destination, row firstRow + r starts at offset + r * stride
+     * @param offset index of the first pixel in out
+     * @param stride distance between the starts of two rows in out
+     */
+    static void read(BufferedImage img, int firstRow, int rows, int[] out, int offset, int stride) {
+        int width = img.getWidth();
+        WritableRaster raster = img.getRaster();
+        SampleModel model = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        boolean untranslated = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && buffer.getNumBanks() == 1;
+        boolean intRgb = img.getType() == BufferedImage.TYPE_INT_RGB || img.getType() == BufferedImage.TYPE_INT_ARGB;
+        if (untranslated && intRgb && buffer instanceof DataBufferInt ints
+                && model instanceof SinglePixelPackedSampleModel packed) {
+            int[] data = ints.getData();
+            int scan = packed.getScanlineStride();
+            for (int r = 0; r < rows; r++) {
+                int source = ints.getOffset() + (firstRow + r) * scan;
+                int target = offset + r * stride;
+                for (int col = 0; col < width; col++) {
+                    out[target + col] = data[source + col] | Argb.OPAQUE;
+                }
+            }
+        } else if (untranslated && isByteRgb(img) && buffer instanceof DataBufferByte bytes
+                && model instanceof PixelInterleavedSampleModel interleaved) {
+            byte[] data = bytes.getData();
+            int scan = interleaved.getScanlineStride();
+            int step = interleaved.getPixelStride();
+            int[] bands = interleaved.getBandOffsets(); //Red, green and blue are the first three bands
+            for (int r = 0; r < rows; r++) {
+                int source = bytes.getOffset() + (firstRow + r) * scan;
+                int target = offset + r * stride;
+                for (int col = 0; col < width; col++, source += step) {
+                    out[target + col] = Argb.pack(data[source + bands[0]] & Argb.CHANNEL_MASK,
+                            data[source + bands[1]] & Argb.CHANNEL_MASK, data[source + bands[2]] & Argb.CHANNEL_MASK);
+                }
+            }
+        } else { //Any other layout goes through the color model, still one call per row
+            for (int r = 0; r < rows; r++) {
+                img.getRGB(0, firstRow + r, width, 1, out, offset + r * stride, width);
+                for (int col = 0; col < width; col++) {
+                    out[offset + r * stride + col] |= Argb.OPAQUE;
+                }
+            }
+        }
+    }
+
+    /**
+     * 8 bit sRGB color model, with or without a straight alpha channel, like most decoded PNG and JPEG files
+     */
+    private static boolean isByteRgb(BufferedImage img) {
+        return img.getColorModel() instanceof ComponentColorModel colors
+                && colors.getColorSpace().isCS_sRGB()
+                && colors.getColorSpace().getType() == ColorSpace.TYPE_RGB
+                && !colors.isAlphaPremultiplied()
+                && colors.getTransferType() == DataBuffer.TYPE_BYTE;
+    }
+
+    /**
+     * Create an RGB image and fill it with the given rows
+     * @param width width of the image
+     * @param height height of the image
+     * @param pixels source, row r starts at offset + r * stride
+     * @param offset index of the first pixel in pixels
+     * @param stride distance between the starts of two rows in pixels
+     * @return new image
+     */
+    static BufferedImage write(int width, int height, int[] pixels, int offset, int stride) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] data = data(image);
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(pixels, offset + row * stride, data, row * width, width);
+        }
+        return image;
+    }
+
+    /**
+     * Create an RGB image and fill it with rows found anywhere in the given array
+     * @param width width of the image
+     * @param height height of the image
+     * @param pixels source
+     * @param rowOffset index in pixels of the first pixel of every row
+     * @return new image
+     */
+    static BufferedImage write(int width, int height, int[] pixels, int[] rowOffset) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] data = data(image);
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(pixels, rowOffset[row], data, row * width, width);
+        }
+        return image;
+    }
+
+    /**
+     * Pixels of an image created as {@link BufferedImage#TYPE_INT_RGB}, one int per pixel, row after row
+     * @param image image to write into
+     * @return backing array of the image
+     */
+    static int[] data(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+}
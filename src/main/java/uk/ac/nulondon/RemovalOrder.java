@@ -0,0 +1,69 @@
+package uk.ac.nulondon;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * When every pixel of an image goes while carving it one lowest energy vertical seam after the other,
+ * found once by {@link PackedImage#removalOrder(int)}. The image carved to any width in between is then
+ * made in a single pass, keeping the pixels removed last, with the same result as
+ * {@link PackedImage#resizeToWidth(int)}.
+ */
+public class RemovalOrder {
+    private final int width;
+    private final int height;
+    private final int minWidth;
+    private final int[] argb; //Pixels of the image before carving, row after row
+    private final int[] order; //Seam every pixel was removed with, Integer.MAX_VALUE if it never was
+
+    /**
+     * @param width width of the image before carving
+     * @param height height of the image
+     * @param minWidth narrowest width carved to
+     * @param argb pixels of the image, row after row
+     * @param order number of seams removed before every pixel, same layout as argb
+     */
+    RemovalOrder(int width, int height, int minWidth, int[] argb, int[] order) {
+        this.width = width;
+        this.height = height;
+        this.minWidth = minWidth;
+        this.argb = argb;
+        this.order = order;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Narrowest width the image can be carved to
+     */
+    public int getMinWidth() {
+        return minWidth;
+    }
+
+    /**
+     * Carve the image to the given width, only keeping the pixels removed after the first seams
+     * @param targetWidth width between {@link #getMinWidth()} and the width of the image
+     * @return carved image
+     */
+    public BufferedImage toWidth(int targetWidth) {
+        if (targetWidth < minWidth || targetWidth > width) {
+            throw new IllegalArgumentException("Width must be between " + minWidth + " and " + width
+                    + ": " + targetWidth);
+        }
+        int removed = width - targetWidth; //Every row has exactly one pixel removed with each seam
+        BufferedImage image = new BufferedImage(targetWidth, height, BufferedImage.TYPE_INT_RGB);
+        int[] data = Rasters.data(image);
+        int next = 0;
+        for (int i = 0; i < argb.length; i++) {
+            if (order[i] >= removed) {
+                data[next++] = argb[i];
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,186 @@
+package uk.ac.nulondon;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Content-aware resize shown in steps of increasing quality while the user picks a size. A small copy
+ * of the image is carved first and scaled up, then the full image is carved with approximate seams removed
+ * in bulk, then with the exact seams {@link PackedImage#retarget(int, int)} finds. Every step works on its own
+ * copy of the image on a background thread, and asking for another size interrupts the steps still running.
+ * The last exact resize is kept, so that resizing the image to that size can take it instead of carving again.
+ */
+public class ResizePreview implements AutoCloseable {
+    private static final int COARSE_PIXELS = 32 * 1024; //Size of the small copy, carved in a few milliseconds
+    private static final int APPROXIMATE_LEVELS = 3;
+    private static final int APPROXIMATE_BAND = 8;
+
+    /**
+     * Quality of a preview
+     */
+    public enum Stage {
+        COARSE, APPROXIMATE, EXACT
+    }
+
+    /**
+     * Gets every preview, on the background thread
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param stage how the preview was made
+         * @param preview resized image
+         */
+        void show(Stage stage, BufferedImage preview);
+    }
+
+    /**
+     * Exact resize of the image, the same as {@link PackedImage#retarget(int, int)} on it gives
+     * @param width width of the resized image
+     * @param height height of the resized image
+     * @param image resized copy of the image, not used by the preview anymore
+     * @param edits seams removed and inserted, to be passed to {@link PackedImage#revert(List)}
+     */
+    public record Resized(int width, int height, PackedImage image, List<PackedImage.Edit> edits) {
+    }
+
+    private final PackedImage image; //Only read, every step carves a copy
+    private final PackedImage coarse;
+    private final double scale; //Size of the small copy relative to the image
+    private final Listener listener;
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(Thread.ofVirtual().name("resize-preview").factory());
+    private Future<?> current; //Steps for the last size asked for
+    private Resized resized; //Last exact resize finished and not taken yet
+
+    /**
+     * @param image image to resize, only read by the preview, so it must not change until the preview is closed
+     * @param listener gets the previews
+     */
+    public ResizePreview(PackedImage image, Listener listener) {
+        this.image = image;
+        this.listener = listener;
+        scale = Math.min(1, Math.sqrt((double) COARSE_PIXELS / image.getWidth() / image.getHeight()));
+        coarse = new PackedImage(scaled(image.toBufferedImage(), scaledSize(image.getWidth()),
+                scaledSize(image.getHeight())));
+        coarse.setBulkRemoval(true);
+        if (image.getEnergyFunction() instanceof VectorEnergy vectorized) {
+            //Vector code is slow until it gets compiled, and there is little to gain on the small copy
+            coarse.setEnergyFunction(ScalarEnergy.valueOf(vectorized.name()));
+        }
+    }
+
+    private int scaledSize(int size) {
+        return Math.max(1, (int) Math.round(size * scale));
+    }
+
+    /**
+     * Start previewing the given size, dropping the previews of the size asked for before
+     * @param targetWidth width of the resized image
+     * @param targetHeight height of the resized image
+     * @throws IllegalArgumentException if the image cannot be retargeted to the size
+     */
+    public synchronized void request(int targetWidth, int targetHeight) {
+        image.checkTargetSize(targetWidth, targetHeight); //Before anything of that size is allocated
+        cancel();
+        current = executor.submit(() -> refine(targetWidth, targetHeight));
+    }
+
+    /**
+     * Stop previewing, the previews already shown stay the latest ones
+     */
+    public synchronized void cancel() {
+        if (current != null) {
+            current.cancel(true); //Interrupts the resize, which stops between two seams
+            current = null;
+        }
+    }
+
+    /**
+     * Take the exact resize to the given size if it is finished, so that it is not carved a second time
+     * @param targetWidth width of the resized image
+     * @param targetHeight height of the resized image
+     * @return The exact resize, only ever handed out once, or null if it is not finished
+     */
+    public synchronized Resized take(int targetWidth, int targetHeight) {
+        if (resized == null || resized.width() != targetWidth || resized.height() != targetHeight) {
+            return null;
+        }
+        Resized taken = resized;
+        resized = null;
+        return taken;
+    }
+
+    /**
+     * Show the previews one after the other, stopping once interrupted
+     */
+    private void refine(int targetWidth, int targetHeight) {
+        try {
+            PackedImage small = new PackedImage(coarse);
+            small.retarget(scaledSize(targetWidth), scaledSize(targetHeight));
+            show(Stage.COARSE, scaled(small.toBufferedImage(), targetWidth, targetHeight));
+
+            PackedImage approximate = new PackedImage(image);
+            approximate.setBulkRemoval(true);
+            approximate.setApproximation(APPROXIMATE_LEVELS, APPROXIMATE_BAND);
+            approximate.retarget(targetWidth, targetHeight);
+            show(Stage.APPROXIMATE, approximate.toBufferedImage());
+
+            PackedImage exact = new PackedImage(image);
+            List<PackedImage.Edit> edits = exact.retarget(targetWidth, targetHeight);
+            BufferedImage preview = exact.toBufferedImage(); //Before handing the image out
+            synchronized (this) {
+                resized = new Resized(targetWidth, targetHeight, exact, edits);
+            }
+            show(Stage.EXACT, preview);
+        } catch (CancellationException e) {
+            //Another size was asked for
+        }
+    }
+
+    private void show(Stage stage, BufferedImage preview) {
+        if (!Thread.currentThread().isInterrupted()) {
+            listener.show(stage, preview);
+        }
+    }
+
+    /**
+     * Scale an image to the given size taking the nearest pixel, several times faster than interpolating
+     * @param img image created by {@link PackedImage#toBufferedImage()}
+     */
+    private static BufferedImage scaled(BufferedImage img, int width, int height) {
+        if (img.getWidth() == width && img.getHeight() == height) {
+            return img;
+        }
+        int[] source = Rasters.data(img);
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] target = Rasters.data(scaled);
+        int[] columns = new int[width]; //Column of the source pixel of every column
+        for (int col = 0; col < width; col++) {
+            columns[col] = (int) ((long) col * img.getWidth() / width);
+        }
+        for (int row = 0; row < height; row++) {
+            int offset = (int) ((long) row * img.getHeight() / height) * img.getWidth();
+            for (int col = 0; col < width; col++) {
+                target[row * width + col] = source[offset + columns[col]];
+            }
+        }
+        return scaled;
+    }
+
+    /**
+     * Stop previewing and the background thread
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            cancel();
+            resized = null;
+        }
+        executor.shutdown();
+    }
+}
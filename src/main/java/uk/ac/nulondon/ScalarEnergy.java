@@ -0,0 +1,78 @@
+package uk.ac.nulondon;
+
+/**
+ * Built-in energy functions as plain loops, used when the vector API is not available
+ * and for the columns left over by {@link VectorEnergy}
+ */
+enum ScalarEnergy implements EnergyFunction {
+    SOBEL {
+        @Override
+        public void calculateRow(Row row, int from, int to) {
+            short[] channelSums = row.channelSums();
+            double[] energy = row.energy();
+            int above = row.above();
+            int current = row.current();
+            int below = row.below();
+            for (int col = from; col < to; col++) {
+                double aboveLeft = brightness(channelSums, above + col - 1);
+                double aboveRight = brightness(channelSums, above + col + 1);
+                double belowLeft = brightness(channelSums, below + col - 1);
+                double belowRight = brightness(channelSums, below + col + 1);
+                double horizontalEnergy = aboveLeft + brightness(channelSums, current + col - 1) * 2 + belowLeft
+                        - aboveRight - brightness(channelSums, current + col + 1) * 2 - belowRight;
+                double verticalEnergy = aboveLeft + brightness(channelSums, above + col) * 2 + aboveRight
+                        - belowLeft - brightness(channelSums, below + col) * 2 - belowRight;
+                energy[current + col] =
+                        Math.sqrt(horizontalEnergy * horizontalEnergy + verticalEnergy * verticalEnergy);
+            }
+        }
+    },
+    DUAL_GRADIENT {
+        @Override
+        public void calculateRow(Row row, int from, int to) {
+            int[] argb = row.argb();
+            double[] energy = row.energy();
+            int above = row.above();
+            int current = row.current();
+            int below = row.below();
+            for (int col = from; col < to; col++) {
+                double horizontal = gradient(argb[current + col - 1], argb[current + col + 1]);
+                double vertical = gradient(argb[above + col], argb[below + col]);
+                energy[current + col] = Math.sqrt(horizontal + vertical);
+            }
+        }
+    },
+    FORWARD {
+        @Override
+        public void calculateRow(Row row, int from, int to) {
+            short[] channelSums = row.channelSums();
+            double[] energy = row.energy();
+            int above = row.above();
+            int current = row.current();
+            for (int col = from; col < to; col++) {
+                double left = brightness(channelSums, current + col - 1);
+                double right = brightness(channelSums, current + col + 1);
+                double up = brightness(channelSums, above + col);
+                double joined = Math.abs(right - left); //Left and right neighbours meet
+                energy[current + col] = joined + Math.min(Math.abs(up - left), Math.abs(up - right));
+            }
+        }
+    };
+
+    /**
+     * Same value as {@link Pixel#brightness()}
+     */
+    static double brightness(short[] channelSums, int index) {
+        return channelSums[index] / 3.0;
+    }
+
+    /**
+     * Squared difference between two colors, adding up the channels
+     */
+    static double gradient(int first, int second) {
+        double red = Argb.red(second) - Argb.red(first);
+        double green = Argb.green(second) - Argb.green(first);
+        double blue = Argb.blue(second) - Argb.blue(first);
+        return red * red + green * green + blue * blue;
+    }
+}
@@ -0,0 +1,190 @@
+package uk.ac.nulondon;
+
+/**
+ * Approximate seam search for very large images. The values are averaged over blocks of 2x2 pixels once
+ * per level, the best seam is found on the smallest level and then refined level by level, only looking
+ * at the pixels within a band around the seam of the level below. The full image is only read once per seam
+ * to build the first level, everything else works on much smaller arrays.
+ */
+class SeamPyramid {
+    private float[][] levels = new float[0][]; //Averaged values of every level, line after line
+    private double[] values = new double[0]; //Values of a line of the full image
+    private double[] previous = new double[0]; //Best value of a seam ending in every position of the line above
+    private double[] current = new double[0];
+    private int[] direction = new int[0]; //Position of the best pixel above, for every pixel of every band
+    private int[] from = new int[0]; //First position of the band of every line
+    private int[] to = new int[0]; //Last position of the band of every line
+
+    /**
+     * Find a seam which maximizes the total value of its pixels, close to the best one
+     * @param width number of positions in every line
+     * @param height number of lines
+     * @param rowValues value of every pixel
+     * @param levelCount number of times the values are halved in both directions, fewer if the image is small
+     * @param band number of pixels searched on each side of the seam of the level below
+     * @return position of the seam in every line
+     */
+    int[] findSeam(int width, int height, SeamSolver.RowValues rowValues, int levelCount, int band) {
+        if (band < 1) {
+            throw new IllegalArgumentException("Band must be at least one pixel: " + band);
+        }
+        int count = 0;
+        while (count < levelCount && (width >> count) > 2 * band && (height >> count) > 1) {
+            count++; //Stop once the band covers the whole level
+        }
+        int[] widths = new int[count + 1];
+        int[] heights = new int[count + 1];
+        widths[0] = width;
+        heights[0] = height;
+        for (int level = 1; level <= count; level++) {
+            widths[level] = (widths[level - 1] + 1) / 2;
+            heights[level] = (heights[level - 1] + 1) / 2;
+        }
+        if (levels.length < count + 1) {
+            levels = new float[count + 1][];
+        }
+        ensureCapacity(width, height);
+        if (count > 0) {
+            buildFirstLevel(width, height, widths[1], rowValues);
+        }
+        for (int level = 2; level <= count; level++) {
+            buildLevel(level, widths[level - 1], heights[level - 1], widths[level]);
+        }
+
+        //Whole smallest level, then a band around the seam at every level above it
+        int[] seam = null;
+        for (int level = count; level >= 0; level--) {
+            int levelWidth = widths[level];
+            for (int line = 0; line < heights[level]; line++) {
+                if (seam == null) {
+                    from[line] = 0;
+                    to[line] = levelWidth - 1;
+                } else {
+                    int center = Math.min(levelWidth - 1, 2 * seam[Math.min(line / 2, seam.length - 1)]);
+                    from[line] = Math.max(0, center - band);
+                    to[line] = Math.min(levelWidth - 1, center + 1 + band);
+                }
+            }
+            float[] map = levels[level];
+            seam = searchBands(heights[level], level == 0 ? rowValues : (line, first, last, out) -> {
+                for (int position = first; position < last; position++) {
+                    out[position] = map[line * levelWidth + position];
+                }
+            });
+        }
+        return seam;
+    }
+
+    private void ensureCapacity(int width, int height) {
+        if (values.length < width) {
+            values = new double[width];
+            previous = new double[width];
+            current = new double[width];
+        }
+        if (from.length < height) {
+            from = new int[height];
+            to = new int[height];
+        }
+    }
+
+    /**
+     * Average the full image over blocks of 2x2 pixels, reading it one line at a time
+     */
+    private void buildFirstLevel(int width, int height, int levelWidth, SeamSolver.RowValues rowValues) {
+        int levelHeight = (height + 1) / 2;
+        float[] map = levels[1] != null && levels[1].length >= levelWidth * levelHeight
+                ? levels[1] : new float[levelWidth * levelHeight];
+        levels[1] = map;
+        for (int line = 0; line < height; line++) {
+            rowValues.fill(line, 0, width, values);
+            int offset = (line / 2) * levelWidth;
+            boolean last = line == height - 1;
+            for (int position = 0; position < width; position += 2) {
+                double sum = values[position] + (position + 1 < width ? values[position + 1] : values[position]);
+                float block = (float) (last && line % 2 == 0 ? sum / 2 : sum / 4); //Odd edges count twice
+                if (line % 2 == 0) {
+                    map[offset + position / 2] = block;
+                } else {
+                    map[offset + position / 2] += block;
+                }
+            }
+        }
+    }
+
+    /**
+     * Average the level below over blocks of 2x2 pixels
+     */
+    private void buildLevel(int level, int belowWidth, int belowHeight, int levelWidth) {
+        int levelHeight = (belowHeight + 1) / 2;
+        float[] below = levels[level - 1];
+        float[] map = levels[level] != null && levels[level].length >= levelWidth * levelHeight
+                ? levels[level] : new float[levelWidth * levelHeight];
+        levels[level] = map;
+        for (int line = 0; line < levelHeight; line++) {
+            int top = 2 * line * belowWidth;
+            int bottom = Math.min(2 * line + 1, belowHeight - 1) * belowWidth;
+            for (int position = 0; position < levelWidth; position++) {
+                int left = 2 * position;
+                int right = Math.min(left + 1, belowWidth - 1);
+                map[line * levelWidth + position] =
+                        (below[top + left] + below[top + right] + below[bottom + left] + below[bottom + right]) / 4;
+            }
+        }
+    }
+
+    /**
+     * Find the seam maximizing the total value, only going through the band of every line
+     * @param height number of lines
+     * @param rowValues value of every pixel
+     * @return position of the seam in every line
+     */
+    private int[] searchBands(int height, SeamSolver.RowValues rowValues) {
+        int cells = 0;
+        for (int line = 0; line < height; line++) {
+            cells += to[line] - from[line] + 1;
+        }
+        if (direction.length < cells) {
+            direction = new int[cells];
+        }
+        rowValues.fill(0, from[0], to[0] + 1, previous);
+        int offset = 0;
+        for (int line = 1; line < height; line++) {
+            offset += to[line - 1] - from[line - 1] + 1;
+            rowValues.fill(line, from[line], to[line] + 1, values);
+            int first = from[line - 1];
+            int last = to[line - 1];
+            for (int position = from[line]; position <= to[line]; position++) {
+                int best = Math.max(first, Math.min(last, position)); //Closest pixel above if the bands barely touch
+                double max = previous[best];
+                if (position - 1 >= first && position - 1 <= last && previous[position - 1] > max) {
+                    max = previous[position - 1];
+                    best = position - 1;
+                }
+                if (position + 1 >= first && position + 1 <= last && previous[position + 1] > max) {
+                    max = previous[position + 1];
+                    best = position + 1;
+                }
+                direction[offset + position - from[line]] = best;
+                current[position] = values[position] + max;
+            }
+            double[] swap = previous; //Current line becomes the line above
+            previous = current;
+            current = swap;
+        }
+
+        int[] seam = new int[height];
+        int seamPos = from[height - 1];
+        for (int position = seamPos + 1; position <= to[height - 1]; position++) {
+            if (previous[position] > previous[seamPos]) {
+                seamPos = position;
+            }
+        }
+        seam[height - 1] = seamPos;
+        for (int line = height - 1; line >= 1; line--) {
+            seamPos = direction[offset + seamPos - from[line]];
+            offset -= to[line - 1] - from[line - 1] + 1;
+            seam[line - 1] = seamPos;
+        }
+        return seam;
+    }
+}
@@ -0,0 +1,270 @@
+package uk.ac.nulondon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the seam maximizing the value of its pixels, shared by {@link Image} and {@link PackedImage}.
+ * Works on lines and positions rather than rows and columns: a vertical seam crosses every row,
+ * a horizontal one every column, without transposing the image.
+ * The table is kept in primitive row buffers which are reused between seams.
+ */
+class SeamSolver {
+    private static final int[] STEPS = {0, -1, 1}; //Straight up first, like the single seam search
+    /**
+     * Values of the pixels of an image, read one line at a time
+     */
+    interface RowValues {
+        /**
+         * @param row line of the pixels, a row for vertical seams and a column for horizontal ones
+         * @param from first position in the line
+         * @param to position after the last one
+         * @param values filled in with the value of every pixel between from and to
+         */
+        void fill(int row, int from, int to, double[] values);
+    }
+
+    private double[] previousRow = new double[0]; //Best value of a seam ending in every pixel of the row above
+    private double[] currentRow = new double[0];
+    private double[] lastRow = new double[0]; //Value of the best pixel above every pixel of the last row
+    private double[] values = new double[0]; //Values of the pixels of the current row
+    private int[] direction = new int[0]; //Column of the best pixel above every pixel
+    private double[] table = new double[0]; //Best total value of a seam ending in every pixel, for several seams
+    private boolean[] used = new boolean[0]; //Pixels some seam already goes through
+    private int[] ends = new int[0]; //Columns of the last line, best seam first
+    private int[] merged = new int[0]; //Scratch space for sorting the columns of the last line
+
+    private ParallelRows workers = ParallelRows.of(1);
+    private int parallelWidth = Integer.MAX_VALUE;
+
+    /**
+     * Split every row into column chunks calculated in parallel once the image is wide enough.
+     * Every column only depends on three columns of the row above, so the seam found is the same.
+     * @param pool threads to use
+     * @param minWidth narrowest image searched in parallel
+     */
+    void setWorkers(ParallelRows pool, int minWidth) {
+        workers = pool;
+        parallelWidth = minWidth;
+    }
+
+    /**
+     * Find the seam which maximizes total value extracted from the pixels.
+     * Picks the same seam as the original list based table of {@link Image}.
+     * @param width number of positions in every line, the width of the image for vertical seams
+     * @param height number of lines, the height of the image for vertical seams
+     * @param rowValues value of every pixel
+     * @param cumulative whether values add up along the seam or the best neighbour is picked row by row
+     * @return position of the seam in every line
+     */
+    int[] findSeam(int width, int height, RowValues rowValues, boolean cumulative) {
+        int[] seam = new int[height];
+        if (lastRow.length < width || direction.length < width * height) { //Image got bigger than the buffers
+            previousRow = new double[width];
+            currentRow = new double[width];
+            lastRow = new double[width];
+            values = new double[width];
+            direction = new int[width * height];
+        }
+        double[] previous = previousRow;
+        double[] current = currentRow;
+        rowValues.fill(0, 0, width, previous);
+
+        //Only one row, pick its best pixel
+        if (height == 1) {
+            int best = 0;
+            for (int col = 1; col < width; col++) {
+                if (previous[col] > previous[best]) {
+                    best = col;
+                }
+            }
+            seam[0] = best;
+            return seam;
+        }
+
+        //Calculate for future rows
+        boolean wavefront = workers.getParallelism() > 1 && width >= parallelWidth;
+        for (int row = 1; row < height; row++) {
+            if (wavefront) { //Columns only depend on the row above, which is complete by now
+                int r = row;
+                double[] above = previous;
+                double[] here = current;
+                workers.forEachChunk(width, (from, to) -> {
+                    rowValues.fill(r, from, to, values);
+                    searchRow(r, from, to, width, above, here, cumulative);
+                });
+            } else {
+                rowValues.fill(row, 0, width, values);
+                searchRow(row, 0, width, width, previous, current, cumulative);
+            }
+            double[] swap = previous; //Current row becomes the row above
+            previous = current;
+            current = swap;
+        }
+
+        //Find max seam in last row
+        int seamPos = 0;
+        for (int col = 1; col < width; col++) {
+            if (lastRow[col] > lastRow[seamPos]) {
+                seamPos = col;
+            }
+        }
+        seam[height - 1] = seamPos;
+
+        //Find the actual seam, looking up the best pixel above the same way the list based table did
+        for (int row = height - 1; row >= 1; row--) {
+            seamPos = direction[row * width + seamPos];
+            seam[row - 1] = direction[row * width + seamPos];
+        }
+        return seam;
+    }
+
+    /**
+     * Find several seams with a high total value from a single table, for removing them all at once.
+     * Seams are followed up from the best pixels of the last line, each going through the best pixel above
+     * which no other seam went through, without crossing another seam. Pixels of the last line whose seam
+     * gets stuck are skipped, so fewer seams than asked for may be found.
+     * @param width number of positions in every line
+     * @param height number of lines
+     * @param rowValues value of every pixel
+     * @param count number of seams wanted
+     * @return position of every seam in every line, at least one seam
+     */
+    List<int[]> findSeams(int width, int height, RowValues rowValues, int count) {
+        if (table.length < width * height) { //Image got bigger than the buffers
+            table = new double[width * height];
+            used = new boolean[width * height];
+        }
+        if (ends.length < width) {
+            ends = new int[width];
+            merged = new int[width];
+        }
+        if (values.length < width) {
+            values = new double[width];
+        }
+        double[] line = values;
+        rowValues.fill(0, 0, width, line);
+        System.arraycopy(line, 0, table, 0, width);
+        for (int row = 1; row < height; row++) {
+            rowValues.fill(row, 0, width, line);
+            int above = (row - 1) * width;
+            for (int col = 0; col < width; col++) {
+                double max = table[above + col];
+                if (col > 0 && table[above + col - 1] > max) {
+                    max = table[above + col - 1];
+                }
+                if (col < width - 1 && table[above + col + 1] > max) {
+                    max = table[above + col + 1];
+                }
+                table[row * width + col] = line[col] + max;
+            }
+        }
+
+        for (int col = 0; col < width; col++) {
+            ends[col] = col;
+        }
+        int[] sorted = sortEnds(width, (height - 1) * width);
+        Arrays.fill(used, 0, width * height, false);
+        List<int[]> seams = new ArrayList<>(count);
+        int[] path = new int[height];
+        for (int i = 0; i < width && seams.size() < count; i++) {
+            if (followSeam(sorted[i], width, height, table, used, path)) {
+                for (int row = 0; row < height; row++) {
+                    used[row * width + path[row]] = true;
+                }
+                seams.add(path.clone());
+            }
+        }
+        return seams;
+    }
+
+    /**
+     * Sort the columns of the last line by the total value of their seam, best first and left to right
+     * on ties. A merge sort of the columns themselves, so that they are not boxed.
+     * @param width number of columns in {@link #ends}
+     * @param last start of the last line in {@link #table}
+     * @return Sorted columns, either {@link #ends} or {@link #merged}
+     */
+    private int[] sortEnds(int width, int last) {
+        int[] from = ends;
+        int[] to = merged;
+        for (int run = 1; run < width; run *= 2) {
+            for (int start = 0; start < width; start += 2 * run) {
+                int mid = Math.min(start + run, width);
+                int end = Math.min(start + 2 * run, width);
+                int left = start;
+                int right = mid;
+                for (int i = start; i < end; i++) {
+                    //Take from the right run only when strictly better, so ties stay in column order
+                    if (right < end && (left >= mid
+                            || Double.compare(table[last + from[right]], table[last + from[left]]) > 0)) {
+                        to[i] = from[right++];
+                    } else {
+                        to[i] = from[left++];
+                    }
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        return from;
+    }
+
+    /**
+     * Follow the best free pixels above from the given pixel of the last line
+     * @return whether the seam reached the first line
+     */
+    private static boolean followSeam(int end, int width, int height, double[] table, boolean[] used, int[] path) {
+        if (used[(height - 1) * width + end]) {
+            return false;
+        }
+        path[height - 1] = end;
+        for (int row = height - 1; row >= 1; row--) {
+            int col = path[row];
+            int above = (row - 1) * width;
+            int best = -1;
+            for (int step : STEPS) {
+                int next = col + step;
+                if (next < 0 || next >= width || used[above + next]) {
+                    continue;
+                }
+                //Going diagonally past a seam going the other way would cross it
+                if (next != col && used[row * width + next] && used[above + col]) {
+                    continue;
+                }
+                if (best < 0 || table[above + next] > table[above + best]) {
+                    best = next;
+                }
+            }
+            if (best < 0) {
+                return false;
+            }
+            path[row - 1] = best;
+        }
+        return true;
+    }
+
+    /**
+     * Fill in the best pixel above for a range of columns of a row whose values are in {@link #values}
+     */
+    private void searchRow(int row, int from, int to, int width, double[] previous, double[] current,
+                           boolean cumulative) {
+        for (int col = from; col < to; col++) {
+            int best = col;
+            double max = previous[col];
+            if (col > 0 && previous[col - 1] > max) {
+                max = previous[col - 1];
+                best = col - 1;
+            }
+            if (col < width - 1 && previous[col + 1] > max) {
+                max = previous[col + 1];
+                best = col + 1;
+            }
+            direction[row * width + col] = best;
+            lastRow[col] = max;
+            current[col] = cumulative ? values[col] + max : values[col];
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package uk.ac.nulondon;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads a binary snapshot written by {@link SnapshotOutput}
+ */
+final class SnapshotInput implements Closeable {
+    private static final int FIRST_CHUNK_INTS = 1024 * 1024; //Deflated arrays start this big and double as they arrive
+
+    private final ReadableByteChannel channel;
+    private final Inflater inflater; //Null when not compressed
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(SnapshotOutput.BUFFER_BYTES);
+
+    private SnapshotInput(ReadableByteChannel channel, Inflater inflater) {
+        this.channel = channel;
+        this.inflater = inflater;
+        buffer.flip(); //Nothing read yet
+    }
+
+    /**
+     * Open a snapshot file and check its header
+     * @param file snapshot file
+     * @return input positioned after the header
+     * @throws IOException if the file cannot be read or is not a snapshot this version can read
+     */
+    static SnapshotInput open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        boolean compressed;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + 1);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new EOFException("Not a snapshot: " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != SnapshotOutput.MAGIC) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            int version = header.getInt();
+            if (version != SnapshotOutput.FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            }
+            compressed = header.get() == 1;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (!compressed) {
+            return new SnapshotInput(channel, null);
+        }
+        Inflater inflater = new Inflater();
+        return new SnapshotInput(Channels.newChannel(new InflaterInputStream(Channels.newInputStream(channel),
+                inflater, SnapshotOutput.BUFFER_BYTES)), inflater);
+    }
+
+    int getByte() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+
+    int getInt() throws IOException {
+        require(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    void getInts(int[] values, int offset, int length) throws IOException {
+        while (length > 0) {
+            require(Integer.BYTES);
+            int count = Math.min(length, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().get(values, offset, count);
+            buffer.position(buffer.position() + count * Integer.BYTES);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Read an array of values. Deflated snapshots cannot tell how much is left, so their array grows as
+     * the values arrive and a corrupt length runs into the end of the snapshot before it is all allocated.
+     * @param length number of values
+     * @return Values read
+     * @throws IOException if the snapshot ends first
+     */
+    int[] getInts(int length) throws IOException {
+        int[] values = new int[inflater == null ? length : Math.min(length, FIRST_CHUNK_INTS)];
+        getInts(values, 0, values.length);
+        while (values.length < length) {
+            int read = values.length;
+            values = Arrays.copyOf(values, (int) Math.min(length, 2L * read));
+            getInts(values, read, values.length - read);
+        }
+        return values;
+    }
+
+    /**
+     * Check that an uncompressed snapshot still holds the given number of bytes, so that a corrupt size fails
+     * before anything is allocated for it. Deflated snapshots are not checked, see {@link #getInts(int)}.
+     * @param bytes number of bytes still to be read
+     * @throws IOException if the file is shorter
+     */
+    void requireRemaining(long bytes) throws IOException {
+        if (channel instanceof FileChannel file && bytes > buffer.remaining() + file.size() - file.position()) {
+            throw new EOFException("Snapshot ends too early for " + bytes + " more bytes");
+        }
+    }
+
+    void getDoubles(double[] values, int offset, int length) throws IOException {
+        while (length > 0) {
+            require(Double.BYTES);
+            int count = Math.min(length, buffer.remaining() / Double.BYTES);
+            buffer.asDoubleBuffer().get(values, offset, count);
+            buffer.position(buffer.position() + count * Double.BYTES);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * @param maxBytes longest string expected
+     * @return String written by {@link SnapshotOutput#putString(String)}
+     * @throws IOException if the string is longer than expected or cannot be read
+     */
+    String getString(int maxBytes) throws IOException {
+        byte[] bytes = new byte[checkedLength(getInt(), maxBytes)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) getByte();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param length length the array must have
+     * @return Array written by {@link SnapshotOutput#putArray(int[])}, or null
+     * @throws IOException if the array has another length or cannot be read
+     */
+    int[] getArray(int length) throws IOException {
+        int written = getInt();
+        if (written == -1) {
+            return null;
+        }
+        if (written != length) {
+            throw new IOException("Corrupt snapshot: " + written + " values where " + length + " were expected");
+        }
+        int[] values = new int[length];
+        getInts(values, 0, length);
+        return values;
+    }
+
+    /**
+     * @param lines number of lines the seam must cross
+     * @param positions number of positions in every line
+     * @return Seam written by {@link SnapshotOutput#putSeam(int[])}, or null
+     * @throws IOException if the seam does not fit the lines or cannot be read
+     */
+    int[] getSeam(int lines, int positions) throws IOException {
+        int written = getInt();
+        if (written == -1) {
+            return null;
+        }
+        if (written != lines) {
+            throw new IOException("Corrupt snapshot: seam of " + written + " lines where " + lines + " were expected");
+        }
+        int[] seam = new int[lines];
+        int previous = 0;
+        for (int line = 0; line < seam.length; line++) {
+            int zigzag = getVarint();
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            if (previous < 0 || previous >= positions) {
+                throw new IOException("Corrupt snapshot: seam position " + previous + " out of " + positions);
+            }
+            seam[line] = previous;
+        }
+        return seam;
+    }
+
+    private int getVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += SnapshotOutput.VARINT_BITS) {
+            int b = getByte();
+            value |= (b & SnapshotOutput.VARINT_MASK) << shift;
+            if ((b & SnapshotOutput.VARINT_MORE) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt snapshot: number too long");
+    }
+
+    /**
+     * Length of an array, checked before allocating it so that a corrupt file fails cleanly
+     */
+    private static int checkedLength(int length, int maxLength) throws IOException {
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Corrupt snapshot: length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Make sure the buffer holds at least the given number of bytes
+     */
+    private void require(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Snapshot ends too early");
+            }
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+}
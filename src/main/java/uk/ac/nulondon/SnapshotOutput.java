@@ -0,0 +1,171 @@
+package uk.ac.nulondon;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a binary snapshot through a buffer onto a file channel, optionally deflated.
+ * The header is never compressed, so {@link SnapshotInput} can tell how to read the rest.
+ * Seams are written as the difference between neighbouring positions, which mostly fit in a byte.
+ */
+final class SnapshotOutput implements Closeable {
+    static final int MAGIC = 0x5345414D; //"SEAM"
+    static final int FORMAT_VERSION = 2; //History newest first, so that it can be checked against the image
+    static final int BUFFER_BYTES = 64 * 1024;
+    static final int VARINT_BITS = 7; //Bits of the number in every byte
+    static final int VARINT_MASK = 0x7F;
+    static final int VARINT_MORE = 0x80; //Set on every byte but the last
+
+    private final WritableByteChannel channel;
+    private final Deflater deflater; //Null when not compressed
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+    private SnapshotOutput(WritableByteChannel channel, Deflater deflater) {
+        this.channel = channel;
+        this.deflater = deflater;
+    }
+
+    /**
+     * Create or replace a snapshot file and write its header
+     * @param file snapshot file
+     * @param compress whether everything after the header is deflated
+     * @return output positioned after the header
+     * @throws IOException if the file cannot be written
+     */
+    static SnapshotOutput create(Path file, boolean compress) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + 1);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).put((byte) (compress ? 1 : 0)).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (!compress) {
+            return new SnapshotOutput(channel, null);
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED); //Checkpoints need to be quick more than small
+        return new SnapshotOutput(Channels.newChannel(
+                new DeflaterOutputStream(Channels.newOutputStream(channel), deflater, BUFFER_BYTES)), deflater);
+    }
+
+    void putByte(int value) throws IOException {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    void putInt(int value) throws IOException {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    void putInts(int[] values, int offset, int length) throws IOException {
+        while (length > 0) {
+            ensure(Integer.BYTES);
+            int count = Math.min(length, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().put(values, offset, count);
+            buffer.position(buffer.position() + count * Integer.BYTES);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    void putDoubles(double[] values, int offset, int length) throws IOException {
+        while (length > 0) {
+            ensure(Double.BYTES);
+            int count = Math.min(length, buffer.remaining() / Double.BYTES);
+            buffer.asDoubleBuffer().put(values, offset, count);
+            buffer.position(buffer.position() + count * Double.BYTES);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    void putString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        for (byte b : bytes) {
+            putByte(b);
+        }
+    }
+
+    /**
+     * @param values array written with its length, or null
+     */
+    void putArray(int[] values) throws IOException {
+        if (values == null) {
+            putInt(-1);
+            return;
+        }
+        putInt(values.length);
+        putInts(values, 0, values.length);
+    }
+
+    /**
+     * @param seam position in every line, or null
+     */
+    void putSeam(int[] seam) throws IOException {
+        if (seam == null) {
+            putInt(-1);
+            return;
+        }
+        putInt(seam.length);
+        int previous = 0;
+        for (int position : seam) {
+            int delta = position - previous;
+            //Small steps either way become small unsigned numbers
+            putVarint((delta << 1) ^ (delta >> (Integer.SIZE - 1)));
+            previous = position;
+        }
+    }
+
+    /**
+     * Seven bits per byte, the high bit set on every byte but the last
+     */
+    private void putVarint(int value) throws IOException {
+        while ((value & ~VARINT_MASK) != 0) {
+            putByte((value & VARINT_MASK) | VARINT_MORE);
+            value >>>= VARINT_BITS;
+        }
+        putByte(value);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            channel.close(); //Finishes the deflated stream
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package uk.ac.nulondon;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decodes an image file a strip of whole rows at a time, so that the whole decoded image does not have to be
+ * in memory. Every file is decoded in a single pass, the way that fits its reader:
+ * <ul>
+ *     <li>images which fit the memory budget are decoded whole, as {@link ImageIO#read(File)} does</li>
+ *     <li>formats whose reader can seek to any row, such as BMP and TIFF, are decoded a source region at a time</li>
+ *     <li>any other format is decoded once from the start into a ring of rows, which are handed on as soon as
+ *     the reader reports them done, see {@link IIOReadUpdateListener}</li>
+ * </ul>
+ * Interlaced and progressive images, such as interlaced PNG and GIF or progressive JPEG, only complete
+ * their rows in the last pass, so they are decoded whole whatever their size. Images whose decoded data
+ * would not fit in a single array, over about 700 million RGB pixels, cannot go through a ring either,
+ * so they are decoded a region at a time even when the reader has to start from the top for every region.
+ */
+final class StripReader implements AutoCloseable {
+    private static final int WHOLE_IMAGE_HEAP_SHARE = 8; //A decoded image fitting an eighth of the heap is read whole
+
+    /**
+     * Receives the decoded rows, from the top of the image down
+     */
+    interface Rows {
+        /**
+         * @param strip decoded image holding the rows, only valid during the call
+         * @param stripRow row of the strip holding the first row
+         * @param firstRow row of the whole image of the first row
+         * @param rows number of rows, at most {@link #getStripRows()}
+         */
+        void accept(BufferedImage strip, int stripRow, int firstRow, int rows);
+    }
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int stripRows;
+    private final long wholePixels;
+
+    /**
+     * @param file image file
+     * @param stripPixels number of pixels decoded at once, whole rows are always decoded
+     * @param wholePixels largest image decoded whole
+     * @throws IOException if the file cannot be read or is not an image
+     */
+    StripReader(File file, int stripPixels, long wholePixels) throws IOException {
+        input = ImageIO.createImageInputStream(file);
+        Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+        if (readers == null || !readers.hasNext()) {
+            if (input != null) {
+                input.close();
+            }
+            throw new IOException("Not an image: " + file);
+        }
+        reader = readers.next();
+        try {
+            reader.setInput(input, false, true); //Seeks back when a pass has to start again, metadata is not needed
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        stripRows = Math.max(1, Math.min(height, stripPixels / width));
+        this.wholePixels = wholePixels;
+    }
+
+    /**
+     * @return Largest image decoded whole by default, one whose ARGB values take an eighth of the heap
+     */
+    static long wholeImagePixels() {
+        return Runtime.getRuntime().maxMemory() / WHOLE_IMAGE_HEAP_SHARE / Integer.BYTES;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Largest number of rows handed on at once
+     */
+    int getStripRows() {
+        return stripRows;
+    }
+
+    /**
+     * Decode the whole image, handing every row on exactly once unless the reader turns out not to complete
+     * its rows in order, in which case the image is decoded whole and every row handed on again
+     * @param rows receives the decoded rows
+     * @throws IOException if the file cannot be decoded
+     */
+    void read(Rows rows) throws IOException {
+        if ((long) width * height <= wholePixels) {
+            readWhole(rows);
+            return;
+        }
+        if (reader.isRandomAccessEasy(0) || reader.isImageTiled(0)) {
+            readRegions(rows);
+            return;
+        }
+        SampleModel model = reader.getImageTypes(0).next().getSampleModel(1, 1);
+        long scan = scanlineStride(model);
+        if (scan < 0) { //Unusual layout, decoded whole as it comes
+            readWhole(rows);
+        } else if (scan * height > Integer.MAX_VALUE) {
+            readRegions(rows); //Too big for any destination image, a region at a time is the only way left
+        } else if (!readStream(rows, (int) scan)) {
+            readWhole(rows);
+        }
+    }
+
+    private void readWhole(Rows rows) throws IOException {
+        BufferedImage image = reader.read(0);
+        for (int row = 0; row < height; row += stripRows) {
+            rows.accept(image, row, row, Math.min(stripRows, height - row));
+        }
+    }
+
+    /**
+     * Decode a source region at a time into the same strip, only for readers which can seek to the region
+     */
+    private void readRegions(Rows rows) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(reader.getImageTypes(0).next().createBufferedImage(width, stripRows));
+        for (int row = 0; row < height; row += stripRows) {
+            int count = Math.min(stripRows, height - row);
+            param.setSourceRegion(new Rectangle(0, row, width, count));
+            rows.accept(reader.read(0, param), 0, row, count);
+        }
+    }
+
+    /**
+     * Decode the image once into a destination whose rows wrap around a ring of {@link #stripRows} rows,
+     * handing every row on as soon as the reader reports it done
+     * @param scan distance between the starts of two rows in the data of the image
+     * @return Whether every row was handed on in order, false if the reader does not work row by row
+     */
+    private boolean readStream(Rows rows, int scan) throws IOException {
+        ImageTypeSpecifier type = reader.getImageTypes(0).next();
+        SampleModel model = type.getSampleModel(1, 1);
+        SampleModel ringModel = withScanlineStride(model, stripRows, scan);
+        DataBuffer ring = ringModel.createDataBuffer();
+        ColorModel colors = type.getColorModel();
+        BufferedImage strip = new BufferedImage(colors, Raster.createWritableRaster(ringModel, ring, null),
+                colors.isAlphaPremultiplied(), null);
+        //Row r of the destination is row r modulo stripRows of the strip
+        DataBuffer wrapped = new RingBuffer(ring, scan, stripRows);
+        BufferedImage destination = new BufferedImage(colors,
+                Raster.createWritableRaster(withScanlineStride(model, height, scan), wrapped, null),
+                colors.isAlphaPremultiplied(), null);
+
+        RowListener listener = new RowListener(strip, rows);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(destination);
+        reader.addIIOReadUpdateListener(listener);
+        try {
+            reader.read(0, param);
+        } finally {
+            reader.removeIIOReadUpdateListener(listener);
+        }
+        return listener.nextRow == height && !listener.outOfOrder;
+    }
+
+    /**
+     * @return Shortest scanline stride of the model stretched to the width of the image,
+     * or -1 for layouts not going a row at a time
+     */
+    private long scanlineStride(SampleModel model) {
+        return switch (model) {
+            case ComponentSampleModel component -> (long) width * component.getPixelStride();
+            case SinglePixelPackedSampleModel packed -> width;
+            case MultiPixelPackedSampleModel bits -> {
+                int elementBits = DataBuffer.getDataTypeSize(bits.getDataType());
+                yield (bits.getDataBitOffset() + (long) width * bits.getPixelBitStride() + elementBits - 1)
+                        / elementBits;
+            }
+            default -> -1;
+        };
+    }
+
+    /**
+     * @return Same layout as the model with the given number of rows and scanline stride
+     */
+    private SampleModel withScanlineStride(SampleModel model, int rows, int scan) {
+        int type = model.getDataType();
+        return switch (model) {
+            case PixelInterleavedSampleModel pixels ->
+                    new PixelInterleavedSampleModel(type, width, rows, pixels.getPixelStride(), scan,
+                            pixels.getBandOffsets());
+            case BandedSampleModel banded ->
+                    new BandedSampleModel(type, width, rows, scan, banded.getBankIndices(), banded.getBandOffsets());
+            case ComponentSampleModel component ->
+                    new ComponentSampleModel(type, width, rows, component.getPixelStride(), scan,
+                            component.getBankIndices(), component.getBandOffsets());
+            case SinglePixelPackedSampleModel packed ->
+                    new SinglePixelPackedSampleModel(type, width, rows, scan, packed.getBitMasks());
+            case MultiPixelPackedSampleModel bits ->
+                    new MultiPixelPackedSampleModel(type, width, rows, bits.getPixelBitStride(), scan,
+                            bits.getDataBitOffset());
+            default -> throw new IllegalArgumentException("Unsupported layout: " + model);
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+
+    /**
+     * Data of a whole image kept in the data of a few rows, every row of the image going to the next row
+     * of the ring. Readers write a row at a time, so the slot of a row is only worked out when an element
+     * of another row is accessed rather than for every element.
+     */
+    private static final class RingBuffer extends DataBuffer {
+        private final DataBuffer rows;
+        private final byte[][] bytes; //Banks of the rows written directly, null unless they hold bytes
+        private final int scan; //Elements of a row
+        private final int ringRows;
+        private int rowStart = 0; //First element of the row accessed last, in the whole image
+        private int rowEnd = 0; //First element past it
+        private int shift = 0; //From an element of that row to the same element in the ring
+
+        RingBuffer(DataBuffer rows, int scan, int ringRows) {
+            super(rows.getDataType(), rows.getSize(), rows.getNumBanks());
+            this.rows = rows;
+            //Most formats decode to bytes, skipping the buffer of the rows saves a call for every element
+            bytes = rows instanceof DataBufferByte byteRows ? byteRows.getBankData() : null;
+            this.scan = scan;
+            this.ringRows = ringRows;
+        }
+
+        /**
+         * @param i element of the whole image
+         * @return Same element in the ring
+         */
+        private int slot(int i) {
+            if (i < rowStart || i >= rowEnd) { //Another row, usually the next one
+                int row = i / scan;
+                rowStart = row * scan;
+                rowEnd = rowStart + scan;
+                shift = row % ringRows * scan - rowStart;
+            }
+            return i + shift;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            if (bytes != null) {
+                return Byte.toUnsignedInt(bytes[bank][slot(i)]);
+            }
+            return rows.getElem(bank, slot(i));
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            if (bytes != null) {
+                bytes[bank][slot(i)] = (byte) val;
+            } else {
+                rows.setElem(bank, slot(i), val);
+            }
+        }
+    }
+
+    /**
+     * Hands rows on as the reader reports them done, aborting the read once they stop coming in order.
+     * The parameters of the methods are set by {@link IIOReadUpdateListener}.
+     */
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    private final class RowListener implements IIOReadUpdateListener {
+        private final BufferedImage strip;
+        private final Rows rows;
+        private int nextRow = 0;
+        private boolean outOfOrder = false;
+
+        RowListener(BufferedImage strip, Rows rows) {
+            this.strip = strip;
+            this.rows = rows;
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY, int updateWidth,
+                                int updateHeight, int periodX, int periodY, int[] bands) {
+            //A later pass, skipped rows or a row the ring may have overwritten already
+            if (outOfOrder || minY != nextRow || periodY != 1 || minX != 0 || updateWidth != width
+                    || updateHeight > stripRows) {
+                outOfOrder = true;
+                source.abort();
+                return;
+            }
+            int slot = minY % stripRows;
+            int first = Math.min(updateHeight, stripRows - slot);
+            rows.accept(strip, slot, minY, first);
+            if (first < updateHeight) {
+                rows.accept(strip, 0, minY + first, updateHeight - first);
+            }
+            nextRow += updateHeight;
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage image, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage image) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail, int pass, int minPass,
+                                         int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail, int minX, int minY,
+                                    int updateWidth, int updateHeight, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail) {
+        }
+    }
+}
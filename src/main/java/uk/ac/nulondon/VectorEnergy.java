@@ -0,0 +1,139 @@
+package uk.ac.nulondon;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Built-in energy functions on as many pixels at a time as the widest vectors of doubles the CPU runs,
+ * e.g. four with AVX2 and eight with AVX-512, with the vector API. The operations are done in the same
+ * order as in {@link ScalarEnergy}, so the energy is exactly the same. Only loaded once
+ * {@link EnergyFunction#isVectorized()} has checked that the module is there.
+ */
+enum VectorEnergy implements EnergyFunction {
+    SOBEL {
+        @Override
+        public void calculateRow(Row row, int from, int to) {
+            short[] channelSums = row.channelSums();
+            double[] energy = row.energy();
+            int above = row.above();
+            int current = row.current();
+            int below = row.below();
+            int col = from;
+            for (; col + LANES <= to; col += LANES) {
+                DoubleVector aboveLeft = brightness(channelSums, above + col - 1);
+                DoubleVector aboveRight = brightness(channelSums, above + col + 1);
+                DoubleVector belowLeft = brightness(channelSums, below + col - 1);
+                DoubleVector belowRight = brightness(channelSums, below + col + 1);
+                DoubleVector horizontalEnergy = aboveLeft.add(brightness(channelSums, current + col - 1).mul(2))
+                        .add(belowLeft).sub(aboveRight).sub(brightness(channelSums, current + col + 1).mul(2))
+                        .sub(belowRight);
+                DoubleVector verticalEnergy = aboveLeft.add(brightness(channelSums, above + col).mul(2))
+                        .add(aboveRight).sub(belowLeft).sub(brightness(channelSums, below + col).mul(2))
+                        .sub(belowRight);
+                horizontalEnergy.mul(horizontalEnergy).add(verticalEnergy.mul(verticalEnergy)).sqrt()
+                        .intoArray(energy, current + col);
+            }
+            ScalarEnergy.SOBEL.calculateRow(row, col, to);
+        }
+    },
+    DUAL_GRADIENT {
+        @Override
+        public void calculateRow(Row row, int from, int to) {
+            int[] argb = row.argb();
+            double[] energy = row.energy();
+            int above = row.above();
+            int current = row.current();
+            int below = row.below();
+            int col = from;
+            for (; col + LANES <= to; col += LANES) {
+                IntVector left = IntVector.fromArray(INTS, argb, current + col - 1);
+                IntVector right = IntVector.fromArray(INTS, argb, current + col + 1);
+                IntVector up = IntVector.fromArray(INTS, argb, above + col);
+                IntVector down = IntVector.fromArray(INTS, argb, below + col);
+                gradient(left, right).add(gradient(up, down)).sqrt().intoArray(energy, current + col);
+            }
+            ScalarEnergy.DUAL_GRADIENT.calculateRow(row, col, to);
+        }
+    },
+    FORWARD {
+        @Override
+        public void calculateRow(Row row, int from, int to) {
+            short[] channelSums = row.channelSums();
+            double[] energy = row.energy();
+            int above = row.above();
+            int current = row.current();
+            int col = from;
+            for (; col + LANES <= to; col += LANES) {
+                DoubleVector left = brightness(channelSums, current + col - 1);
+                DoubleVector right = brightness(channelSums, current + col + 1);
+                DoubleVector up = brightness(channelSums, above + col);
+                DoubleVector joined = right.sub(left).abs();
+                joined.add(up.sub(left).abs().min(up.sub(right).abs())).intoArray(energy, current + col);
+            }
+            ScalarEnergy.FORWARD.calculateRow(row, col, to);
+        }
+    };
+
+    private static final int MIN_LANES = 4; //Fewer doubles per vector are not worth converting the pixels for
+    private static final int LANES = preferredLanes();
+    private static final VectorSpecies<Double> DOUBLES = species(double.class, Double.SIZE, LANES);
+    //Same number of lanes, so a load of channel sums or pixels converts into exactly one vector of doubles
+    private static final VectorSpecies<Short> SHORTS = species(short.class, Short.SIZE, LANES);
+    private static final VectorSpecies<Integer> INTS = species(int.class, Integer.SIZE, LANES);
+
+    /**
+     * @return Whether the CPU runs vectors of at least {@link #MIN_LANES} doubles natively
+     */
+    static boolean isNative() {
+        return DoubleVector.SPECIES_PREFERRED.length() >= MIN_LANES;
+    }
+
+    /**
+     * @return Lanes of the widest vectors of doubles the CPU prefers for which vectors of shorts and ints
+     * with as many lanes exist too, at least {@link #MIN_LANES}
+     */
+    private static int preferredLanes() {
+        for (int lanes = DoubleVector.SPECIES_PREFERRED.length(); lanes > MIN_LANES; lanes /= 2) {
+            try {
+                species(short.class, Short.SIZE, lanes);
+                species(int.class, Integer.SIZE, lanes);
+                return lanes;
+            } catch (IllegalArgumentException e) {
+                //No vector shape that size, e.g. half of a very wide SVE vector, try a narrower one
+            }
+        }
+        return MIN_LANES;
+    }
+
+    private static <E> VectorSpecies<E> species(Class<E> type, int bits, int lanes) {
+        return VectorSpecies.of(type, VectorShape.forBitSize(bits * lanes));
+    }
+
+    /**
+     * Brightness of the pixels starting at the given index, same as {@link ScalarEnergy#brightness(short[], int)}
+     */
+    private static DoubleVector brightness(short[] channelSums, int index) {
+        return ((DoubleVector) ShortVector.fromArray(SHORTS, channelSums, index)
+                .convertShape(VectorOperators.S2D, DOUBLES, 0)).div(3.0);
+    }
+
+    /**
+     * Squared difference between two colors, adding up the channels, same as
+     * {@link ScalarEnergy#gradient(int, int)}
+     */
+    private static DoubleVector gradient(IntVector first, IntVector second) {
+        DoubleVector red = channel(second, Argb.RED_SHIFT).sub(channel(first, Argb.RED_SHIFT));
+        DoubleVector green = channel(second, Argb.GREEN_SHIFT).sub(channel(first, Argb.GREEN_SHIFT));
+        DoubleVector blue = channel(second, 0).sub(channel(first, 0));
+        return red.mul(red).add(green.mul(green)).add(blue.mul(blue));
+    }
+
+    private static DoubleVector channel(IntVector pixels, int shift) {
+        return (DoubleVector) pixels.lanewise(VectorOperators.LSHR, shift).and(Argb.CHANNEL_MASK)
+                .convertShape(VectorOperators.I2D, DOUBLES, 0);
+    }
+}
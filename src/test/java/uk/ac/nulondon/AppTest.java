@@ -1,6 +1,7 @@
 package uk.ac.nulondon;
 
 import org.approvaltests.awt.AwtApprovals;
+import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -51,4 +52,22 @@ public class AppTest {
         AwtApprovals.verify(image.toBufferedImage());
     }
 
+    @Test
+    void seamEditsKeepEnergyUpToDate() {
+        Image edited = new Image(TestImages.randomImage(37, 23));
+        edited.insertSeams(4);
+        for (int k = 0; k < 6; k++) {
+            List<Pixel> seam = edited.getLowestEnergySeam();
+            edited.removeSeam(seam);
+            if (k % 2 == 0) { //Put some back, as undo does
+                edited.addSeam(seam);
+            }
+        }
+        Image fresh = new Image(edited.toBufferedImage());
+        edited.highlightSeam(edited.getLowestEnergySeam(), Color.RED);
+        fresh.highlightSeam(fresh.getLowestEnergySeam(), Color.RED);
+        Assertions.assertThat(TestImages.pixels(edited.toBufferedImage()))
+                .isEqualTo(TestImages.pixels(fresh.toBufferedImage()));
+    }
+
 }
@@ -0,0 +1,107 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+class BatchMainTest {
+    @TempDir
+    Path output;
+
+    @Test
+    void carvesEveryMatchingImage() throws IOException, InterruptedException {
+        new BatchMain(new String[]{"--input", "src/main/resources/*.png", "--seams", "2",
+            "--output", output.toString()}).run();
+        try (var files = Files.list(Paths.get("src/main/resources"))) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".png")).toList()) {
+                String name = file.getFileName().toString().replace(".png", "-carved.png");
+                BufferedImage original = ImageIO.read(file.toFile());
+                BufferedImage carved = ImageIO.read(output.resolve(name).toFile());
+                Assertions.assertThat(carved.getWidth()).isEqualTo(original.getWidth() - 2);
+                Assertions.assertThat(carved.getHeight()).isEqualTo(original.getHeight());
+            }
+        }
+    }
+
+    @Test
+    void greenestSeamsToWidth() throws IOException, InterruptedException {
+        new BatchMain(new String[]{"--input", "src/main/resources/beach.png", "--width", "5",
+            "--energy", "green", "--threads", "3", "--output", output.toString()}).run();
+        Assertions.assertThat(ImageIO.read(output.resolve("beach-carved.png").toFile()).getWidth()).isEqualTo(5);
+    }
+
+    @Test
+    void approximateSeamsToSize() throws IOException, InterruptedException {
+        new BatchMain(new String[]{"--input", "src/main/resources/beach.png", "--width", "6", "--height", "4",
+            "--levels", "1", "--band", "1", "--removal", "bulk", "--output", output.toString()}).run();
+        BufferedImage carved = ImageIO.read(output.resolve("beach-carved.png").toFile());
+        Assertions.assertThat(carved.getWidth()).isEqualTo(6);
+        Assertions.assertThat(carved.getHeight()).isEqualTo(4);
+    }
+
+    @Test
+    void severalWidthsFromOneRemovalOrder() throws IOException, InterruptedException {
+        new BatchMain(new String[]{"--input", "src/main/resources/beach.png", "--widths", "7,3,5",
+            "--output", output.toString()}).run();
+        for (int width : new int[]{7, 3, 5}) {
+            BufferedImage carved = ImageIO.read(output.resolve("beach-" + width + ".png").toFile());
+            Assertions.assertThat(carved.getWidth()).isEqualTo(width);
+            Assertions.assertThat(carved.getHeight()).isEqualTo(8);
+        }
+    }
+
+    @Test
+    void writesMetrics() throws IOException, InterruptedException {
+        Path metrics = output.resolve("metrics.json");
+        new BatchMain(new String[]{"--input", "src/main/resources/beach.png", "--seams", "3",
+            "--metrics", metrics.toString(), "--output", output.toString()}).run();
+        Assertions.assertThat(Files.readString(metrics)).startsWith("[{\"name\":\"beach.png\"")
+                .contains("\"decode\":{\"count\":1,", "\"seam_search\":{\"count\":3,",
+                        "\"remove_seam\":{\"count\":3,", "\"encode\":{\"count\":1,");
+    }
+
+    @Test
+    void cachesOnlyForTheRun() throws IOException, InterruptedException {
+        EnergyCache.Stats shared = EnergyCache.shared().stats();
+        new BatchMain(new String[]{"--input", "src/main/resources/beach.png", "--seams", "2", "--cache", "1",
+            "--output", output.toString()}).run();
+        Assertions.assertThat(output.resolve("beach-carved.png")).exists();
+        Assertions.assertThat(EnergyCache.shared().stats()).isEqualTo(shared);
+    }
+
+    @Test
+    void mappedStorageCarvesTheSameSeams() throws IOException, InterruptedException {
+        Path heap = output.resolve("heap");
+        Path mapped = output.resolve("mapped");
+        new BatchMain(new String[]{"--input", "src/main/resources/beach.png", "--seams", "3",
+            "--output", heap.toString()}).run();
+        new BatchMain(new String[]{"--input", "src/main/resources/beach.png", "--seams", "3", "--storage", "mapped",
+            "--output", mapped.toString()}).run();
+        Assertions.assertThat(TestImages.pixels(ImageIO.read(mapped.resolve("beach-carved.png").toFile())))
+                .isEqualTo(TestImages.pixels(ImageIO.read(heap.resolve("beach-carved.png").toFile())));
+        try (var files = Files.list(mapped)) {
+            Assertions.assertThat(files.map(file -> file.getFileName().toString())).containsExactly("beach-carved.png");
+        }
+    }
+
+    @Test
+    void mappedStorageOnlyCarvesVertically() {
+        Assertions.assertThatThrownBy(() -> new BatchMain(new String[]{"--input", "src/main/resources",
+                "--height", "4", "--storage", "mapped"})).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsMissingTarget() {
+        Assertions.assertThatThrownBy(() -> new BatchMain(new String[]{"--input", "src/main/resources"}))
+                .isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThatThrownBy(() -> new BatchMain(new String[]{"--input", "src/main/resources",
+            "--seams", "1", "--threads", "0"})).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,162 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class EditorServiceTest {
+    private static final String BEACH = "src/main/resources/beach.png";
+
+    @TempDir
+    Path dir;
+
+    private EditorService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    private int savedWidth(String session) throws Exception {
+        Path file = dir.resolve(session + ".png");
+        service.submit(session, editor -> {
+            editor.save(file.toString());
+            return null;
+        }).get();
+        return ImageIO.read(file.toFile()).getWidth();
+    }
+
+    @Test
+    void sessionsHaveTheirOwnImage() throws Exception {
+        service = new EditorService(2, 8, dir);
+        String first = service.openSession();
+        String second = service.openSession();
+        service.submit(first, editor -> {
+            editor.load(BEACH);
+            return null;
+        });
+        service.submit(second, editor -> {
+            editor.load(BEACH);
+            return null;
+        });
+        service.submit(first, editor -> {
+            editor.resizeToWidth(5);
+            return null;
+        });
+        Assertions.assertThat(savedWidth(first)).isEqualTo(5);
+        Assertions.assertThat(savedWidth(second)).isEqualTo(8);
+        service.closeSession(first).get();
+        Assertions.assertThat(service.sessionCount()).isEqualTo(1);
+        Assertions.assertThatThrownBy(() -> service.submit(first, editor -> null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void workStaysOnTheWorkers() throws Exception {
+        service = new EditorService(2, 8, dir);
+        String session = service.openSession();
+        String thread = service.submit(session, editor -> {
+            Assertions.assertThat(editor.getParallelism()).isEqualTo(1); //Energy and seams on this thread
+            editor.load(BEACH);
+            editor.highlightLowestEnergySeam();
+            return Thread.currentThread().getName();
+        }).get();
+        Assertions.assertThat(thread).startsWith("editor-worker-");
+    }
+
+    @Test
+    void commandsOfASessionRunOneAtATimeInOrder() throws Exception {
+        service = new EditorService(4, 100, dir);
+        String session = service.openSession();
+        AtomicInteger running = new AtomicInteger();
+        List<Integer> order = new ArrayList<>(); //Not thread safe, only ever used by one command at a time
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int index = i;
+            results.add(service.submit(session, editor -> {
+                int overlapping = running.incrementAndGet();
+                order.add(index);
+                Thread.yield();
+                running.decrementAndGet();
+                return overlapping;
+            }));
+        }
+        for (CompletableFuture<Integer> result : results) {
+            Assertions.assertThat(result.get()).isEqualTo(1);
+        }
+        Assertions.assertThat(order).isSorted().hasSize(50);
+    }
+
+    @Test
+    void submittingWaitsWhenTooManyArePending() throws Exception {
+        service = new EditorService(1, 2, dir);
+        String session = service.openSession();
+        CountDownLatch release = new CountDownLatch(1);
+        service.submit(session, editor -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        service.submit(session, editor -> null);
+        CompletableFuture<CompletableFuture<String>> third = CompletableFuture.supplyAsync(() -> {
+            try {
+                return service.submit(session, editor -> "third");
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        Assertions.assertThat(third).isNotDone(); //Still waiting for room
+        release.countDown();
+        Assertions.assertThat(third.get(10, TimeUnit.SECONDS).get()).isEqualTo("third");
+    }
+
+    @Test
+    void failuresGoToTheResult() throws Exception {
+        service = new EditorService(1, 4, dir);
+        String session = service.openSession();
+        CompletableFuture<Object> missing = service.submit(session, editor -> {
+            editor.load(dir.resolve("missing.png").toString());
+            return null;
+        });
+        Assertions.assertThatThrownBy(missing::get).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IOException.class);
+        Assertions.assertThat(service.submit(session, editor -> "still running").get()).isEqualTo("still running");
+
+        CompletableFuture<Object> error = service.submit(session, editor -> {
+            throw new StackOverflowError();
+        });
+        Assertions.assertThatThrownBy(error::get).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(StackOverflowError.class);
+        Assertions.assertThat(service.submit(session, editor -> "after an error").get(10, TimeUnit.SECONDS))
+                .isEqualTo("after an error");
+    }
+
+    @Test
+    void closedServiceRejectsWork() throws Exception {
+        service = new EditorService(1, 4, dir);
+        String session = service.openSession();
+        service.close();
+        Assertions.assertThat(service.sessionCount()).isZero();
+        Assertions.assertThatThrownBy(service::openSession).isInstanceOf(IllegalStateException.class);
+        Assertions.assertThatThrownBy(() -> service.submit(session, editor -> null))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,122 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+class EnergyCacheTest {
+    @Test
+    void dropsLeastRecentlyUsedOverBudget() {
+        EnergyCache cache = new EnergyCache(2 * (100 * Double.BYTES + EnergyCache.ENTRY_OVERHEAD_BYTES));
+        cache.putEnergy("a", 10, 10, "SOBEL", new double[100]);
+        cache.putEnergy("b", 10, 10, "SOBEL", new double[100]);
+        Assertions.assertThat(cache.getEnergy("a", 10, 10, "SOBEL")).isNotNull(); //Now the most recently used
+        cache.putEnergy("c", 10, 10, "SOBEL", new double[100]);
+        Assertions.assertThat(cache.getEnergy("b", 10, 10, "SOBEL")).isNull();
+        Assertions.assertThat(cache.getEnergy("a", 10, 10, "SOBEL")).isNotNull();
+        Assertions.assertThat(cache.getEnergy("c", 10, 10, "FORWARD")).isNull();
+
+        EnergyCache.Stats stats = cache.stats();
+        Assertions.assertThat(stats.hits()).isEqualTo(2);
+        Assertions.assertThat(stats.misses()).isEqualTo(2);
+        Assertions.assertThat(stats.evictions()).isEqualTo(1);
+        Assertions.assertThat(stats.entries()).isEqualTo(2);
+        Assertions.assertThat(stats.hitRate()).isEqualTo(0.5);
+        Assertions.assertThat(cache.accepts(100 * Double.BYTES)).isTrue();
+        Assertions.assertThat(cache.accepts(300 * Double.BYTES)).isFalse();
+
+        cache.setBudget(0);
+        Assertions.assertThat(cache.stats().entries()).isZero();
+        Assertions.assertThat(cache.stats().bytes()).isZero();
+    }
+
+    @Test
+    void sameImageSkipsEnergyAndFirstSeam() {
+        BufferedImage img = TestImages.randomImage(41, 29);
+        EnergyCache cache = new EnergyCache(1 << 20);
+        PackedImage first = new PackedImage(img);
+        first.setEnergyCache(cache);
+        int[] seam = first.getLowestEnergySeam();
+        first.getGreenestSeam();
+        Assertions.assertThat(cache.stats().hits()).isZero();
+
+        PackedImage second = new PackedImage(img);
+        second.setEnergyCache(cache);
+        Metrics metrics = new Metrics("second");
+        second.setMetrics(metrics);
+        Assertions.assertThat(second.getLowestEnergySeam()).isEqualTo(seam);
+        Assertions.assertThat(second.getGreenestSeam()).isEqualTo(first.getGreenestSeam());
+        Assertions.assertThat(cache.stats().hits()).isEqualTo(4); //Energy and both seams, then the greenest again
+
+        //Once the pixels change the seams are searched for again and match an image without a cache
+        PackedImage plain = new PackedImage(img);
+        for (int i = 0; i < 5; i++) {
+            second.removeSeam(second.getLowestEnergySeam());
+            plain.removeSeam(plain.getLowestEnergySeam());
+        }
+        Assertions.assertThat(second.getLowestEnergySeam()).isEqualTo(plain.getLowestEnergySeam());
+        Assertions.assertThat(cache.stats().hits()).isEqualTo(5);
+    }
+
+    @Test
+    void onlyPixelsAsReadAreCached() {
+        BufferedImage img = TestImages.randomImage(31, 19);
+        EnergyCache cache = new EnergyCache(1 << 20);
+        PackedImage image = new PackedImage(img);
+        image.setEnergyCache(cache);
+        PackedImage unedited = new PackedImage(image);
+        image.getLowestEnergySeam();
+        int entries = cache.stats().entries(); //Energy and the seam
+
+        image.removeSeam(image.getLowestEnergySeam());
+        image.getLowestEnergySeam();
+        PackedImage editedCopy = new PackedImage(image);
+        editedCopy.getLowestEnergySeam();
+        image.removeLowEnergySeams(5, Orientation.VERTICAL);
+        image.insertSeams(3);
+        image.getGreenestSeam();
+        Assertions.assertThat(cache.stats().entries()).isEqualTo(entries);
+
+        long hits = cache.stats().hits();
+        unedited.getLowestEnergySeam(); //A copy of the pixels as read still finds them
+        Assertions.assertThat(cache.stats().hits()).isEqualTo(hits + 2);
+    }
+
+    @Test
+    void digestDoesNotDependOnTheThreads() {
+        BufferedImage img = TestImages.randomImage(53, 300); //Several bands of rows
+        EnergyCache cache = new EnergyCache(1 << 20);
+        PackedImage parallel = new PackedImage(img);
+        parallel.setParallelism(4);
+        parallel.setEnergyCache(cache);
+        parallel.calculateEnergy();
+        PackedImage serial = new PackedImage(img);
+        serial.setEnergyCache(cache);
+        serial.calculateEnergy();
+        Assertions.assertThat(cache.stats().hits()).isEqualTo(1);
+
+        img.setRGB(52, 299, img.getRGB(52, 299) ^ 1); //Last pixel only
+        PackedImage changed = new PackedImage(img);
+        changed.setEnergyCache(cache);
+        changed.calculateEnergy();
+        Assertions.assertThat(cache.stats().hits()).isEqualTo(1);
+    }
+
+    @Test
+    void energyFunctionIsPartOfTheKey() {
+        BufferedImage img = TestImages.randomImage(23, 17);
+        EnergyCache cache = new EnergyCache(1 << 20);
+        PackedImage sobel = new PackedImage(img);
+        sobel.setEnergyCache(cache);
+        sobel.getLowestEnergySeam();
+
+        PackedImage forward = new PackedImage(img);
+        forward.setEnergyCache(cache);
+        forward.setEnergyFunction(ScalarEnergy.FORWARD);
+        PackedImage plain = new PackedImage(img);
+        plain.setEnergyFunction(ScalarEnergy.FORWARD);
+        Assertions.assertThat(forward.getLowestEnergySeam()).isEqualTo(plain.getLowestEnergySeam());
+        Assertions.assertThat(cache.stats().hits()).isZero();
+    }
+}
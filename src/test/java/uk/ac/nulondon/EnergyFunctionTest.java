@@ -0,0 +1,68 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+class EnergyFunctionTest {
+    private static final int WIDTH = 23;
+    private static final int HEIGHT = 3;
+
+    private final int[] argb = new int[WIDTH * HEIGHT];
+    private final short[] channelSums = new short[WIDTH * HEIGHT];
+
+    EnergyFunctionTest() {
+        Random random = new Random(WIDTH);
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = random.nextInt() | 0xFF000000;
+            channelSums[i] = PackedImage.channelSum(argb[i]);
+        }
+    }
+
+    private double[] middleRow(EnergyFunction function) {
+        double[] energy = new double[argb.length];
+        function.calculateRow(new EnergyFunction.Row(argb, channelSums, energy, 0, WIDTH, 2 * WIDTH), 1, WIDTH - 1);
+        return energy;
+    }
+
+    @ParameterizedTest
+    @EnumSource(ScalarEnergy.class)
+    void vectorizedMatchesScalar(ScalarEnergy scalar) {
+        Assumptions.assumeTrue(EnergyFunction.isVectorized(), "Vector API module not loaded");
+        Assertions.assertThat(middleRow(VectorEnergy.valueOf(scalar.name()))).isEqualTo(middleRow(scalar));
+    }
+
+    @Test
+    void sobelIsTheDefault() throws IOException {
+        BufferedImage img = ImageIO.read(new File("src/main/resources/beach.png"));
+        PackedImage scalar = new PackedImage(img);
+        scalar.setEnergyFunction(ScalarEnergy.SOBEL);
+        Assertions.assertThat(new PackedImage(img).getLowestEnergySeam()).isEqualTo(scalar.getLowestEnergySeam());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ScalarEnergy.class)
+    void seamsFollowTheEnergy(ScalarEnergy function) {
+        BufferedImage img = new BufferedImage(WIDTH, 17, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < img.getHeight(); row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                boolean flat = col >= 8 && col <= 10; //Flat stripe which the best seam goes through
+                img.setRGB(col, row, flat ? 0x404040 : argb[(row * 7 + col) % argb.length]);
+            }
+        }
+        PackedImage image = new PackedImage(img);
+        image.setEnergyFunction(function);
+        int[] seam = image.getLowestEnergySeam();
+        for (int row = 1; row < seam.length - 1; row++) {
+            Assertions.assertThat(seam[row]).isBetween(8, 10);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+class ImageEditorTest {
+    private static final String BEACH = "src/main/resources/beach.png";
+
+    @TempDir
+    Path dir;
+
+    private final ImageEditor editor = new ImageEditor();
+
+    @BeforeEach
+    void setup() throws IOException {
+        editor.load(BEACH);
+    }
+
+    private BufferedImage current() throws IOException {
+        Path file = dir.resolve("current.png");
+        editor.save(file.toString());
+        return ImageIO.read(file.toFile());
+    }
+
+    private BufferedImage current(ImageEditor other) throws IOException {
+        Path file = dir.resolve("other.png");
+        other.save(file.toString());
+        return ImageIO.read(file.toFile());
+    }
+
+    @Test
+    void undoRestoresRemovedSeam() throws IOException {
+        BufferedImage original = current();
+        editor.highlightLowestEnergySeam();
+        BufferedImage highlighted = current();
+        editor.removeHighlighted();
+        Assertions.assertThat(current().getWidth()).isEqualTo(original.getWidth() - 1);
+        editor.undo();
+        Assertions.assertThat(TestImages.pixels(current())).isEqualTo(TestImages.pixels(highlighted));
+        editor.undo();
+        Assertions.assertThat(TestImages.pixels(current())).isEqualTo(TestImages.pixels(original));
+    }
+
+    @Test
+    void seamsAreCachedPerVersion() throws IOException {
+        editor.highlightLowestEnergySeam();
+        BufferedImage highlighted = current();
+        editor.undo();
+        editor.highlightLowestEnergySeam(); //Same image as the first time
+        Assertions.assertThat(TestImages.pixels(current())).isEqualTo(TestImages.pixels(highlighted));
+        Assertions.assertThat(editor.seamSearches()).isEqualTo(1);
+
+        editor.removeHighlighted();
+        editor.highlightGreenest();
+        editor.undo();
+        editor.undo();
+        editor.highlightGreenest(); //Highlighted image, not searched yet for the greenest seam
+        Assertions.assertThat(editor.seamSearches()).isEqualTo(3);
+        editor.undo();
+        editor.undo();
+        editor.highlightLowestEnergySeam();
+        Assertions.assertThat(TestImages.pixels(current())).isEqualTo(TestImages.pixels(highlighted));
+        Assertions.assertThat(editor.seamSearches()).isEqualTo(3);
+
+        editor.load(BEACH); //Nothing is kept across images
+        editor.highlightLowestEnergySeam();
+        Assertions.assertThat(editor.seamSearches()).isEqualTo(4);
+    }
+
+    @Test
+    void undoResize() throws IOException {
+        BufferedImage original = current();
+        editor.resizeToWidth(4);
+        Assertions.assertThat(current().getWidth()).isEqualTo(4);
+        editor.undo();
+        Assertions.assertThat(TestImages.pixels(current())).isEqualTo(TestImages.pixels(original));
+        editor.resizeToWidth(16);
+        Assertions.assertThat(current().getWidth()).isEqualTo(16);
+        editor.undo();
+        Assertions.assertThat(TestImages.pixels(current())).isEqualTo(TestImages.pixels(original));
+        editor.resize(original.getWidth() - 2, original.getHeight() + 3);
+        Assertions.assertThat(current().getHeight()).isEqualTo(original.getHeight() + 3);
+        editor.undo();
+        Assertions.assertThat(TestImages.pixels(current())).isEqualTo(TestImages.pixels(original));
+    }
+
+    @Test
+    void historyKeepsOnlyTheLatestCommands() throws IOException {
+        editor.setHistoryLimit(2, Long.MAX_VALUE);
+        editor.highlightGreenest();
+        editor.removeHighlighted();
+        BufferedImage afterFirstSeam = current();
+        editor.highlightGreenest();
+        editor.removeHighlighted();
+        editor.undo();
+        editor.undo();
+        editor.undo(); //Nothing left to undo
+        Assertions.assertThat(TestImages.pixels(current())).isEqualTo(TestImages.pixels(afterFirstSeam));
+    }
+
+    @Test
+    void previewIsWrittenInTheBackground() throws IOException {
+        File preview = new File("target/removedSeam.png");
+        preview.delete();
+        editor.highlightGreenest();
+        editor.removeHighlighted();
+        editor.flush();
+        Assertions.assertThat(ImageIO.read(preview).getWidth()).isEqualTo(current().getWidth());
+    }
+
+    @Test
+    void resizeTakesTheFinishedPreview() throws Exception {
+        BufferedImage original = current();
+        editor.resize(5, 4);
+        int[] expected = TestImages.pixels(current());
+        editor.undo();
+
+        ImageEditor previewing = new ImageEditor(dir);
+        previewing.load(BEACH);
+        previewing.previewResize(5, 4);
+        File preview = dir.resolve("resizePreview.png").toFile();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        //Moved into place whole, so it can be read at any time
+        while (!preview.exists() || !Arrays.equals(TestImages.pixels(ImageIO.read(preview)), expected)) {
+            Assertions.assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+        previewing.resize(5, 4);
+        Assertions.assertThat(TestImages.pixels(current(previewing))).isEqualTo(expected);
+        previewing.undo();
+        Assertions.assertThat(TestImages.pixels(current(previewing))).isEqualTo(TestImages.pixels(original));
+        previewing.close();
+    }
+
+    @Test
+    void commandsDoNotChangeThePreviewedImage() throws Exception {
+        editor.resize(5, 4);
+        int[] expected = TestImages.pixels(current());
+        editor.undo();
+
+        ImageEditor previewing = new ImageEditor(dir);
+        previewing.load(BEACH);
+        previewing.previewResize(5, 4);
+        previewing.highlightLowestEnergySeam(); //Changes a copy, the preview keeps carving the image it got
+        previewing.removeHighlighted();
+        File preview = dir.resolve("resizePreview.png").toFile();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!preview.exists() || !Arrays.equals(TestImages.pixels(ImageIO.read(preview)), expected)) {
+            Assertions.assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+        previewing.close();
+    }
+
+    @Test
+    void resizeGrowsAtMostTwice() throws IOException {
+        BufferedImage original = current();
+        Assertions.assertThatThrownBy(() -> editor.resize(2 * original.getWidth() + 1, original.getHeight()))
+                .isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThatThrownBy(() -> editor.previewResize(original.getWidth(), 2 * original.getHeight() + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThat(TestImages.pixels(current())).isEqualTo(TestImages.pixels(original));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void snapshotResumesHistory(boolean compact) throws IOException {
+        BufferedImage original = current();
+        editor.highlightLowestEnergySeam();
+        editor.removeHighlighted();
+        BufferedImage removed = current();
+        editor.resize(original.getWidth() - 3, original.getHeight() + 2);
+        editor.highlightGreenest();
+        String file = dir.resolve("editor.snapshot").toString();
+        editor.saveSnapshot(file, compact);
+
+        ImageEditor resumed = new ImageEditor();
+        resumed.loadSnapshot(file);
+        Assertions.assertThat(TestImages.pixels(current(resumed))).isEqualTo(TestImages.pixels(current()));
+        resumed.removeHighlighted(); //The highlighted seam is kept too
+        Assertions.assertThat(current(resumed).getWidth()).isEqualTo(original.getWidth() - 4);
+        resumed.undo();
+        resumed.undo();
+        resumed.undo();
+        Assertions.assertThat(TestImages.pixels(current(resumed))).isEqualTo(TestImages.pixels(removed));
+        resumed.undo();
+        resumed.undo();
+        Assertions.assertThat(TestImages.pixels(current(resumed))).isEqualTo(TestImages.pixels(original));
+    }
+
+    @Test
+    void snapshotRejectsOtherFiles() {
+        Assertions.assertThatThrownBy(() -> editor.loadSnapshot(BEACH)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void snapshotRejectsSeamsNotFittingTheImage() throws IOException {
+        PackedImage image = new PackedImage(TestImages.randomImage(7, 5));
+        Path tooLong = dir.resolve("long.snapshot");
+        try (SnapshotOutput out = SnapshotOutput.create(tooLong, false)) {
+            image.writeSnapshot(out, false);
+            out.putInt(Integer.MAX_VALUE - 8); //Highlighted seam far longer than the image is high
+        }
+        Assertions.assertThatThrownBy(() -> editor.loadSnapshot(tooLong.toString()))
+                .isInstanceOf(IOException.class);
+
+        Path outside = dir.resolve("outside.snapshot");
+        try (SnapshotOutput out = SnapshotOutput.create(outside, false)) {
+            image.writeSnapshot(out, false);
+            out.putSeam(new int[] {0, 1, 7, 6, 5}); //Past the last column
+        }
+        Assertions.assertThatThrownBy(() -> editor.loadSnapshot(outside.toString()))
+                .isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,77 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class MappedImageTest {
+    @TempDir
+    Path dir;
+
+    private File randomFile(int width, int height) throws IOException {
+        File file = dir.resolve("random.png").toFile();
+        ImageIO.write(TestImages.randomImage(width, height), "png", file);
+        return file;
+    }
+
+    @Test
+    void sameSeamsAsPackedImage() throws IOException {
+        File file = randomFile(57, 43);
+        PackedImage packed = PackedImage.read(file);
+        //Small streamed strips and mappings, so rows are spread over several chunks
+        try (MappedImage mapped = MappedImage.read(file, dir.resolve("random.bin"), 1000, 0, 2000)) {
+            Assertions.assertThat(TestImages.pixels(mapped.toBufferedImage()))
+                    .isEqualTo(TestImages.pixels(packed.toBufferedImage()));
+            for (int i = 0; i < 10; i++) {
+                int[] seam = mapped.getLowestEnergySeam();
+                Assertions.assertThat(seam).isEqualTo(packed.getLowestEnergySeam());
+                Assertions.assertThat(mapped.removeSeam(seam)).isEqualTo(packed.removeSeam(seam));
+            }
+            Assertions.assertThat(mapped.getWidth()).isEqualTo(packed.getWidth());
+            Assertions.assertThat(TestImages.pixels(mapped.toBufferedImage()))
+                    .isEqualTo(TestImages.pixels(packed.toBufferedImage()));
+        }
+    }
+
+    @Test
+    void addSeamBack() throws IOException {
+        File file = randomFile(31, 19);
+        try (MappedImage mapped = MappedImage.read(file, dir.resolve("random.bin"))) {
+            mapped.setEnergyFunction(EnergyFunction.dualGradient());
+            int[] seam = mapped.getLowestEnergySeam();
+            int[] removed = mapped.removeSeam(seam);
+            mapped.addSeam(seam, removed);
+            Assertions.assertThat(TestImages.pixels(mapped.toBufferedImage()))
+                    .isEqualTo(TestImages.pixels(ImageIO.read(file)));
+            Assertions.assertThatThrownBy(() -> mapped.addSeam(seam, removed))
+                    .isInstanceOf(IllegalStateException.class);
+
+            PackedImage packed = PackedImage.read(file);
+            packed.setEnergyFunction(EnergyFunction.dualGradient());
+            Assertions.assertThat(mapped.getLowestEnergySeam()).isEqualTo(packed.getLowestEnergySeam());
+        }
+    }
+
+    @Test
+    void resizeAndClose() throws IOException {
+        File file = randomFile(40, 12);
+        Path store = dir.resolve("resize.bin");
+        PackedImage packed = PackedImage.read(file);
+        try (MappedImage mapped = MappedImage.read(file, store)) {
+            mapped.resizeToWidth(25);
+            packed.resizeToWidth(25);
+            Assertions.assertThat(TestImages.pixels(mapped.toBufferedImage()))
+                    .isEqualTo(TestImages.pixels(packed.toBufferedImage()));
+            Assertions.assertThatThrownBy(() -> mapped.resizeToWidth(30))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+        Assertions.assertThat(Files.exists(store)).isFalse();
+    }
+}
@@ -0,0 +1,56 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+
+class MetricsTest {
+    @Test
+    void disabledMeasuresNothing() {
+        Metrics metrics = Metrics.disabled();
+        Assertions.assertThat(metrics.start(Metrics.Operation.ENERGY))
+                .isSameAs(metrics.start(Metrics.Operation.SEAM_SEARCH));
+        metrics.start(Metrics.Operation.ENERGY).stop();
+        Assertions.assertThat(metrics.isEnabled()).isFalse();
+        Assertions.assertThat(metrics.count(Metrics.Operation.ENERGY)).isZero();
+    }
+
+    @Test
+    void measuresImageOperations() throws IOException {
+        PackedImage image = new PackedImage(ImageIO.read(new File("src/main/resources/beach.png")));
+        Metrics metrics = new Metrics("beach \"1\"");
+        image.setMetrics(metrics);
+        for (int i = 0; i < 3; i++) {
+            int[] seam = image.getLowestEnergySeam();
+            image.addSeam(seam, image.removeSeam(seam));
+        }
+        Assertions.assertThat(metrics.count(Metrics.Operation.SEAM_SEARCH)).isEqualTo(3);
+        Assertions.assertThat(metrics.count(Metrics.Operation.REMOVE_SEAM)).isEqualTo(3);
+        Assertions.assertThat(metrics.count(Metrics.Operation.ADD_SEAM)).isEqualTo(3);
+        Assertions.assertThat(metrics.count(Metrics.Operation.ENERGY)).isEqualTo(3); //Whole, then updates
+        Assertions.assertThat(metrics.count(Metrics.Operation.ENCODE)).isZero();
+        Assertions.assertThat(metrics.totalNanos(Metrics.Operation.SEAM_SEARCH)).isPositive();
+        long median = metrics.percentileNanos(Metrics.Operation.SEAM_SEARCH, 0.5);
+        Assertions.assertThat(median).isPositive()
+                .isLessThanOrEqualTo(metrics.percentileNanos(Metrics.Operation.SEAM_SEARCH, 1));
+        Assertions.assertThat(metrics.toJson()).startsWith("{\"name\":\"beach \\\"1\\\"\",\"operations\":{")
+                .contains("\"seam_search\":{\"count\":3,").doesNotContain("encode");
+    }
+
+    @Test
+    void editorMeasuresLoadAndSave() throws IOException {
+        Metrics metrics = new Metrics("editor");
+        try (ImageEditor editor = new ImageEditor()) {
+            editor.setMetrics(metrics);
+            editor.load("src/main/resources/beach.png");
+            editor.highlightGreenest();
+            editor.save("target/metrics.png");
+        }
+        Assertions.assertThat(metrics.count(Metrics.Operation.DECODE)).isEqualTo(1);
+        Assertions.assertThat(metrics.count(Metrics.Operation.ENCODE)).isEqualTo(1);
+        Assertions.assertThat(metrics.count(Metrics.Operation.SEAM_SEARCH)).isEqualTo(1);
+    }
+}
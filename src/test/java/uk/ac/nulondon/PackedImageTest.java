@@ -0,0 +1,398 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+class PackedImageTest {
+    private Image image;
+    private PackedImage packed;
+
+    @BeforeEach
+    void setup() throws IOException {
+        BufferedImage bufferedImage = ImageIO.read(new File("src/main/resources/beach.png"));
+        image = new Image(bufferedImage);
+        packed = new PackedImage(bufferedImage);
+    }
+
+    private void assertSameAsImage() {
+        Assertions.assertThat(packed.getWidth()).isEqualTo(image.getWidth());
+        Assertions.assertThat(TestImages.pixels(packed.toBufferedImage()))
+                .isEqualTo(TestImages.pixels(image.toBufferedImage()));
+    }
+
+    @Test
+    void toBufferedImage() {
+        assertSameAsImage();
+    }
+
+    @Test
+    void highlightGreenest() {
+        image.highlightSeam(image.getGreenestSeam(), Color.BLUE);
+        packed.highlightSeam(packed.getGreenestSeam(), Color.BLUE);
+        assertSameAsImage();
+    }
+
+    @Test
+    void highlightLowestEnergy() {
+        image.highlightSeam(image.getLowestEnergySeam(), Color.RED);
+        packed.highlightSeam(packed.getLowestEnergySeam(), Color.RED);
+        assertSameAsImage();
+    }
+
+    @Test
+    void removeSeam() {
+        image.removeSeam(image.getLowestEnergySeam());
+        packed.removeSeam(packed.getLowestEnergySeam());
+        assertSameAsImage();
+    }
+
+    @Test
+    void insertSeam() {
+        BufferedImage original = packed.toBufferedImage();
+        int[] seam = packed.getGreenestSeam();
+        int[] removed = packed.removeSeam(seam);
+        packed.addSeam(seam, removed);
+        Assertions.assertThat(TestImages.pixels(packed.toBufferedImage())).isEqualTo(TestImages.pixels(original));
+    }
+
+    @Test
+    void addSeamPastOriginalWidth() {
+        int[] seam = packed.getGreenestSeam();
+        packed.addSeam(seam, packed.highlightSeam(seam, Color.BLUE));
+        Assertions.assertThat(packed.getWidth()).isEqualTo(image.getWidth() + 1);
+        Assertions.assertThat(packed.toBufferedImage().getRGB(seam[0] + 1, 0)).isEqualTo(Color.BLUE.getRGB());
+    }
+
+    @Test
+    void incrementalEnergyMatchesFullCalculation() {
+        for (int i = 0; i < 4; i++) {
+            PackedImage fresh = new PackedImage(packed.toBufferedImage());
+            int[] seam = packed.getLowestEnergySeam();
+            Assertions.assertThat(seam).isEqualTo(fresh.getLowestEnergySeam());
+            packed.removeSeam(seam);
+
+            Image freshImage = new Image(image.toBufferedImage());
+            freshImage.removeSeam(freshImage.getLowestEnergySeam());
+            image.removeSeam(image.getLowestEnergySeam());
+            Assertions.assertThat(TestImages.pixels(image.toBufferedImage()))
+                    .isEqualTo(TestImages.pixels(freshImage.toBufferedImage()));
+        }
+        assertSameAsImage();
+    }
+
+    @Test
+    void resizeNarrower() {
+        image.removeSeams(3);
+        packed.resizeToWidth(5);
+        assertSameAsImage();
+    }
+
+    @Test
+    void resizeWider() {
+        image.insertSeams(8);
+        packed.resizeToWidth(16);
+        Assertions.assertThat(packed.getWidth()).isEqualTo(16);
+        assertSameAsImage();
+    }
+
+    @Test
+    void parallelEnergyMatchesSerial() {
+        Image serialImage = new Image(image.toBufferedImage());
+        PackedImage serialPacked = new PackedImage(packed);
+        image.setParallelism(4);
+        packed.setParallelism(4);
+        image.removeSeams(3);
+        serialImage.removeSeams(3);
+        packed.resizeToWidth(5);
+        serialPacked.resizeToWidth(5);
+        Assertions.assertThat(TestImages.pixels(image.toBufferedImage()))
+                .isEqualTo(TestImages.pixels(serialImage.toBufferedImage()));
+        Assertions.assertThat(TestImages.pixels(packed.toBufferedImage()))
+                .isEqualTo(TestImages.pixels(serialPacked.toBufferedImage()));
+    }
+
+    @Test
+    void parallelSeamSearchMatchesSerial() {
+        PackedImage serial = new PackedImage(packed);
+        packed.setParallelism(3);
+        packed.setParallelSeamWidth(1);
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertThat(packed.getGreenestSeam()).isEqualTo(serial.getGreenestSeam());
+            int[] seam = packed.getLowestEnergySeam();
+            Assertions.assertThat(seam).isEqualTo(serial.getLowestEnergySeam());
+            packed.removeSeam(seam);
+            serial.removeSeam(seam);
+        }
+    }
+
+    private static BufferedImage transpose(BufferedImage img) {
+        BufferedImage transposed = new BufferedImage(img.getHeight(), img.getWidth(), BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < img.getHeight(); row++) {
+            for (int col = 0; col < img.getWidth(); col++) {
+                transposed.setRGB(row, col, img.getRGB(col, row));
+            }
+        }
+        return transposed;
+    }
+
+    @Test
+    void horizontalSeamsMatchTransposedImage() {
+        BufferedImage img = TestImages.randomImage(37, 23);
+        PackedImage horizontal = new PackedImage(img);
+        PackedImage transposed = new PackedImage(transpose(img));
+        for (int i = 0; i < 6; i++) {
+            Assertions.assertThat(horizontal.getGreenestSeam(Orientation.HORIZONTAL))
+                    .isEqualTo(transposed.getGreenestSeam());
+            int[] seam = horizontal.getLowestEnergySeam(Orientation.HORIZONTAL);
+            Assertions.assertThat(seam).isEqualTo(transposed.getLowestEnergySeam());
+            Assertions.assertThat(horizontal.removeSeam(seam, Orientation.HORIZONTAL))
+                    .isEqualTo(transposed.removeSeam(seam));
+        }
+        Assertions.assertThat(horizontal.getHeight()).isEqualTo(17);
+        Assertions.assertThat(TestImages.pixels(transpose(horizontal.toBufferedImage())))
+                .isEqualTo(TestImages.pixels(transposed.toBufferedImage()));
+    }
+
+    @Test
+    void incrementalEnergyAfterHorizontalSeams() {
+        PackedImage horizontal = new PackedImage(TestImages.randomImage(29, 31));
+        for (int i = 0; i < 4; i++) {
+            int[] seam = horizontal.getLowestEnergySeam(Orientation.HORIZONTAL);
+            int[] removed = horizontal.removeSeam(seam, Orientation.HORIZONTAL);
+            if (i % 2 == 1) {
+                horizontal.addSeam(seam, removed, Orientation.HORIZONTAL);
+                horizontal.highlightSeam(seam, Color.RED, Orientation.HORIZONTAL);
+            }
+            PackedImage fresh = new PackedImage(horizontal.toBufferedImage());
+            Assertions.assertThat(horizontal.getLowestEnergySeam()).isEqualTo(fresh.getLowestEnergySeam());
+            Assertions.assertThat(horizontal.getLowestEnergySeam(Orientation.HORIZONTAL))
+                    .isEqualTo(fresh.getLowestEnergySeam(Orientation.HORIZONTAL));
+        }
+    }
+
+    @Test
+    void insertHorizontalSeamsMatchTransposedImage() {
+        BufferedImage img = TestImages.randomImage(19, 11);
+        PackedImage horizontal = new PackedImage(img);
+        PackedImage transposed = new PackedImage(transpose(img));
+        List<int[]> inserted = horizontal.insertSeams(5, Orientation.HORIZONTAL);
+        Assertions.assertThat(inserted).containsExactlyElementsOf(transposed.insertSeams(5));
+        Assertions.assertThat(TestImages.pixels(transpose(horizontal.toBufferedImage())))
+                .isEqualTo(TestImages.pixels(transposed.toBufferedImage()));
+        for (int i = inserted.size() - 1; i >= 0; i--) {
+            horizontal.removeSeam(inserted.get(i), Orientation.HORIZONTAL);
+        }
+        Assertions.assertThat(TestImages.pixels(horizontal.toBufferedImage())).isEqualTo(TestImages.pixels(img));
+    }
+
+    @Test
+    void retargetGrowsAtMostTwice() {
+        BufferedImage img = TestImages.randomImage(24, 18);
+        PackedImage retargeted = new PackedImage(img);
+        Assertions.assertThatThrownBy(() -> retargeted.retarget(49, 18)).isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThatThrownBy(() -> retargeted.retarget(24, 37)).isInstanceOf(IllegalArgumentException.class);
+        retargeted.retarget(48, 36);
+        Assertions.assertThat(retargeted.getWidth()).isEqualTo(48);
+        Assertions.assertThat(retargeted.getHeight()).isEqualTo(36);
+    }
+
+    @Test
+    void retargetAndRevert() {
+        BufferedImage img = TestImages.randomImage(24, 18);
+        PackedImage retargeted = new PackedImage(img);
+        for (int[] size : new int[][]{{15, 12}, {30, 10}, {20, 26}, {24, 18}}) {
+            List<PackedImage.Edit> edits = retargeted.retarget(size[0], size[1]);
+            Assertions.assertThat(retargeted.getWidth()).isEqualTo(size[0]);
+            Assertions.assertThat(retargeted.getHeight()).isEqualTo(size[1]);
+            retargeted.revert(edits);
+            Assertions.assertThat(TestImages.pixels(retargeted.toBufferedImage())).isEqualTo(TestImages.pixels(img));
+        }
+    }
+
+    @Test
+    void approximateSeamFollowsExactSeam() {
+        BufferedImage img = TestImages.randomImage(120, 70);
+        for (int row = 0; row < img.getHeight(); row++) {
+            for (int col = 50; col < 56; col++) { //Flat stripe which the best seam goes through
+                img.setRGB(col, row, 0x808080);
+            }
+        }
+        PackedImage approximate = new PackedImage(img);
+        approximate.setApproximation(2, 3);
+        int[] seam = approximate.getLowestEnergySeam();
+        for (int row = 1; row < seam.length; row++) {
+            Assertions.assertThat(Math.abs(seam[row] - seam[row - 1])).isLessThanOrEqualTo(1);
+        }
+        PackedImage.Divergence divergence = approximate.measureApproximation(Orientation.VERTICAL);
+        Assertions.assertThat(divergence.maxDistance()).isLessThanOrEqualTo(2);
+        Assertions.assertThat(divergence.excessEnergy()).isLessThan(0.5);
+        approximate.retarget(100, 60);
+        Assertions.assertThat(approximate.getWidth()).isEqualTo(100);
+        Assertions.assertThat(approximate.getHeight()).isEqualTo(60);
+    }
+
+    @Test
+    void bulkSeamsDoNotTouchOrCross() {
+        Random random = new Random(7);
+        double[] values = random.doubles(60 * 40).toArray();
+        List<int[]> seams = new SeamSolver().findSeams(60, 40, (row, from, to, line) ->
+                System.arraycopy(values, row * 60 + from, line, from, to - from), 15);
+        Assertions.assertThat(seams).isNotEmpty().hasSizeLessThanOrEqualTo(15);
+        for (int[] seam : seams) {
+            for (int row = 1; row < seam.length; row++) {
+                Assertions.assertThat(Math.abs(seam[row] - seam[row - 1])).isLessThanOrEqualTo(1);
+            }
+            for (int[] other : seams) {
+                if (other != seam) {
+                    for (int row = 0; row < seam.length; row++) { //Always on the same side
+                        Assertions.assertThat(Integer.signum(seam[row] - other[row]))
+                                .isEqualTo(Integer.signum(seam[0] - other[0])).isNotZero();
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void bulkSeamsReuseTheSolverBuffers() {
+        Random random = new Random(11);
+        double[] values = random.ints(60 * 40, 0, 4).asDoubleStream().toArray(); //Plenty of ties
+        SeamSolver reused = new SeamSolver();
+        for (int width : new int[]{60, 25, 60, 1}) {
+            SeamSolver.RowValues rowValues = (row, from, to, line) ->
+                    System.arraycopy(values, row * width + from, line, from, to - from);
+            List<int[]> expected = new SeamSolver().findSeams(width, 40, rowValues, 10);
+            Assertions.assertThat(reused.findSeams(width, 40, rowValues, 10)).containsExactlyElementsOf(expected);
+        }
+    }
+
+    @Test
+    void bulkRemovalBothWays() {
+        PackedImage bulk = new PackedImage(TestImages.randomImage(40, 30));
+        for (Orientation orientation : Orientation.values()) {
+            List<PackedImage.Edit> edits = bulk.removeLowEnergySeams(16, orientation);
+            Assertions.assertThat(edits).hasSize(16);
+        }
+        Assertions.assertThat(bulk.getWidth()).isEqualTo(24);
+        Assertions.assertThat(bulk.getHeight()).isEqualTo(14);
+        PackedImage fresh = new PackedImage(bulk.toBufferedImage());
+        Assertions.assertThat(bulk.getLowestEnergySeam()).isEqualTo(fresh.getLowestEnergySeam());
+    }
+
+    @Test
+    void bulkRemovalMatchesSeamByRemoval() {
+        BufferedImage img = TestImages.randomImage(50, 20);
+        PackedImage bulk = new PackedImage(img);
+        PackedImage oneByOne = new PackedImage(img);
+        List<PackedImage.Edit> edits = bulk.removeLowEnergySeams(30, Orientation.VERTICAL);
+        for (PackedImage.Edit edit : edits) { //Same image when removing the edits one at a time
+            Assertions.assertThat(oneByOne.removeSeam(edit.seam())).isEqualTo(edit.removed());
+        }
+        Assertions.assertThat(TestImages.pixels(bulk.toBufferedImage()))
+                .isEqualTo(TestImages.pixels(oneByOne.toBufferedImage()));
+        bulk.revert(edits);
+        Assertions.assertThat(TestImages.pixels(bulk.toBufferedImage())).isEqualTo(TestImages.pixels(img));
+    }
+
+    @Test
+    void bulkRetarget() {
+        BufferedImage img = TestImages.randomImage(48, 36);
+        PackedImage bulk = new PackedImage(img);
+        bulk.setBulkRemoval(true);
+        List<PackedImage.Edit> edits = bulk.retarget(20, 30);
+        Assertions.assertThat(bulk.getWidth()).isEqualTo(20);
+        Assertions.assertThat(bulk.getHeight()).isEqualTo(30);
+        bulk.revert(edits);
+        Assertions.assertThat(TestImages.pixels(bulk.toBufferedImage())).isEqualTo(TestImages.pixels(img));
+    }
+
+    @Test
+    void removalOrderMatchesCarving() {
+        BufferedImage img = TestImages.randomImage(30, 12);
+        RemovalOrder order = new PackedImage(img).removalOrder(3);
+        for (int width : new int[]{30, 29, 17, 3}) {
+            PackedImage carved = new PackedImage(img);
+            carved.resizeToWidth(width);
+            Assertions.assertThat(TestImages.pixels(order.toWidth(width)))
+                    .isEqualTo(TestImages.pixels(carved.toBufferedImage()));
+        }
+        Assertions.assertThatThrownBy(() -> order.toWidth(2)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void readInStrips(@TempDir Path dir) throws IOException {
+        BufferedImage img = TestImages.randomImage(33, 27);
+        //Streamed, read a region at a time, decoded whole as interlaced and lossy
+        for (String format : new String[]{"png", "bmp", "gif", "jpg"}) {
+            File file = dir.resolve("random." + format).toFile();
+            ImageIO.write(img, format, file);
+            int[] expected = TestImages.pixels(ImageIO.read(file));
+            for (int stripPixels : new int[]{1, 33 * 4, 33 * 27}) {
+                Assertions.assertThat(TestImages.pixels(PackedImage.read(file, stripPixels, 0).toBufferedImage()))
+                        .isEqualTo(expected);
+            }
+            Assertions.assertThat(TestImages.pixels(PackedImage.read(file).toBufferedImage())).isEqualTo(expected);
+        }
+        PackedImage beach = PackedImage.read(new File("src/main/resources/beach.png"));
+        Assertions.assertThat(beach.getLowestEnergySeam()).isEqualTo(packed.getLowestEnergySeam());
+    }
+
+    @Test
+    void snapshotKeepsPixelsAndEnergy(@TempDir Path dir) throws IOException {
+        PackedImage carved = new PackedImage(TestImages.randomImage(300, 40));
+        carved.setEnergyFunction(ScalarEnergy.DUAL_GRADIENT);
+        carved.resizeToWidth(290); //Rows no longer start a width apart
+        Path file = dir.resolve("image.snapshot");
+        for (boolean compress : new boolean[]{false, true}) {
+            try (SnapshotOutput out = SnapshotOutput.create(file, compress)) {
+                carved.writeSnapshot(out, !compress);
+            }
+            PackedImage read;
+            try (SnapshotInput in = SnapshotInput.open(file)) {
+                read = PackedImage.readSnapshot(in);
+            }
+            Assertions.assertThat(TestImages.pixels(read.toBufferedImage()))
+                    .isEqualTo(TestImages.pixels(carved.toBufferedImage()));
+            Assertions.assertThat(read.getLowestEnergySeam()).isEqualTo(carved.getLowestEnergySeam());
+            Assertions.assertThat(((Enum<?>) read.getEnergyFunction()).name()).isEqualTo("DUAL_GRADIENT");
+        }
+    }
+
+    @Test
+    void corruptSnapshotHeaderFailsBeforeAllocating(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("corrupt.snapshot");
+        for (boolean compress : new boolean[]{false, true}) {
+            try (SnapshotOutput out = SnapshotOutput.create(file, compress)) {
+                out.putInt(46000); //Over 8 GB of pixels, energy and brightness for a file without any
+                out.putInt(46000);
+                out.putString("SOBEL");
+                out.putByte(1);
+            }
+            try (SnapshotInput in = SnapshotInput.open(file)) {
+                Assertions.assertThatThrownBy(() -> PackedImage.readSnapshot(in)).isInstanceOf(IOException.class);
+            }
+        }
+
+        try (SnapshotOutput out = SnapshotOutput.create(file, false)) {
+            out.putInt(1);
+            out.putInt(1);
+            out.putString(""); //No energy function
+            out.putByte(0);
+            out.putInt(0xFF123456);
+        }
+        try (SnapshotInput in = SnapshotInput.open(file)) {
+            Assertions.assertThatThrownBy(() -> PackedImage.readSnapshot(in)).isInstanceOf(IOException.class);
+        }
+    }
+}
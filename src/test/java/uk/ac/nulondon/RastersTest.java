@@ -0,0 +1,48 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+class RastersTest {
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 5;
+
+    @ParameterizedTest
+    @ValueSource(ints = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_565_RGB})
+    void readsLikeGetRgb(int type) {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, type);
+        Random random = new Random(type);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                img.setRGB(col, row, random.nextInt());
+            }
+        }
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Rasters.read(img, 0, HEIGHT, pixels, 0, WIDTH);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                Assertions.assertThat(pixels[row * WIDTH + col]).isEqualTo(img.getRGB(col, row) | 0xFF000000);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {WIDTH, WIDTH + 3})
+    void writesRowsWithStride(int stride) {
+        int[] pixels = new int[stride * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | i * 4099;
+        }
+        BufferedImage img = Rasters.write(WIDTH, HEIGHT, pixels, 0, stride);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                Assertions.assertThat(img.getRGB(col, row)).isEqualTo(pixels[row * stride + col]);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class ResizePreviewTest {
+    private final List<ResizePreview.Stage> stages = new ArrayList<>();
+    private final List<BufferedImage> previews = new ArrayList<>();
+    private final CountDownLatch exact = new CountDownLatch(1);
+
+    private synchronized void show(ResizePreview.Stage stage, BufferedImage preview) {
+        stages.add(stage);
+        previews.add(preview);
+        if (stage == ResizePreview.Stage.EXACT) {
+            exact.countDown();
+        }
+    }
+
+    @Test
+    void refinesUpToTheExactResize() throws InterruptedException {
+        PackedImage image = new PackedImage(TestImages.randomImage(300, 260)); //Bigger than the coarse copy
+        ResizePreview.Resized taken;
+        try (ResizePreview preview = new ResizePreview(image, this::show)) {
+            preview.request(250, 240);
+            Assertions.assertThat(exact.await(30, TimeUnit.SECONDS)).isTrue();
+            taken = preview.take(250, 240);
+            Assertions.assertThat(preview.take(250, 240)).isNull(); //Only handed out once
+        }
+        PackedImage resized = new PackedImage(image);
+        resized.retarget(250, 240);
+        Assertions.assertThat(TestImages.pixels(taken.image().toBufferedImage()))
+                .isEqualTo(TestImages.pixels(resized.toBufferedImage()));
+        taken.image().revert(taken.edits());
+        Assertions.assertThat(TestImages.pixels(taken.image().toBufferedImage()))
+                .isEqualTo(TestImages.pixels(image.toBufferedImage()));
+        synchronized (this) {
+            Assertions.assertThat(stages).containsExactly(ResizePreview.Stage.COARSE,
+                    ResizePreview.Stage.APPROXIMATE, ResizePreview.Stage.EXACT);
+            for (BufferedImage img : previews) {
+                Assertions.assertThat(img.getWidth()).isEqualTo(250);
+                Assertions.assertThat(img.getHeight()).isEqualTo(240);
+            }
+            Assertions.assertThat(TestImages.pixels(previews.get(2)))
+                    .isEqualTo(TestImages.pixels(resized.toBufferedImage()));
+        }
+    }
+
+    @Test
+    void newSizeReplacesTheOldOne() throws InterruptedException {
+        try (ResizePreview preview = new ResizePreview(new PackedImage(TestImages.randomImage(200, 150)), this::show)) {
+            preview.request(100, 150);
+            preview.request(190, 140);
+            Assertions.assertThat(exact.await(30, TimeUnit.SECONDS)).isTrue();
+            Assertions.assertThat(preview.take(100, 150)).isNull();
+        }
+        synchronized (this) {
+            BufferedImage last = previews.get(previews.size() - 1);
+            Assertions.assertThat(last.getWidth()).isEqualTo(190);
+            Assertions.assertThat(last.getHeight()).isEqualTo(140);
+            Assertions.assertThat(stages).containsOnlyOnce(ResizePreview.Stage.EXACT);
+        }
+    }
+
+    @Test
+    void interruptedRetargetStops() {
+        PackedImage image = new PackedImage(TestImages.randomImage(40, 30));
+        Thread.currentThread().interrupt();
+        try {
+            Assertions.assertThatThrownBy(() -> image.retarget(20, 30))
+                    .isInstanceOf(CancellationException.class);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package uk.ac.nulondon;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Images and pixel arrays shared by the tests
+ */
+final class TestImages {
+    private TestImages() {
+    }
+
+    /**
+     * @return Image of random opaque pixels, always the same for the same size
+     */
+    static BufferedImage randomImage(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                img.setRGB(col, row, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    /**
+     * @return ARGB values of the image, row by row
+     */
+    static int[] pixels(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+}